@@ -2,6 +2,8 @@ package org.homio.api;
 
 import com.pivovarit.function.ThrowingRunnable;
 import org.homio.api.entity.BaseEntityIdentifier;
+import org.homio.api.state.DecimalType;
+import org.homio.api.state.OnOffType;
 import org.homio.api.state.State;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -79,6 +81,15 @@ public interface ContextEvent {
     return addEventBehaviourListener(key, discriminator, null, listener);
   }
 
+  /**
+   * Listen for events which key matches regexp. Fires listener immediately for every matched key with saved value. Match
+   * result is cached per key, so regexp evaluates once per key until regexp listeners change (see EventDispatcher)
+   *
+   * @param regexp        - key pattern
+   * @param discriminator - discriminator
+   * @param listener      - listener of key and value
+   * @return ContextEvent
+   */
   @NotNull
   ContextEvent addEventBehaviourListener(@NotNull Pattern regexp, @Nullable String discriminator, @NotNull BiConsumer<String, State> listener);
 
@@ -101,6 +112,26 @@ public interface ContextEvent {
    */
   ContextEvent fireEventIfNotSame(@NotNull String key, @Nullable State value);
 
+  /**
+   * Primitive variant of fireEventIfNotSame(...). Default implementation creates DecimalType on every call. Context
+   * implementation has to override it (i.e. with EventDispatcher.fireIfNotSame(key, double), which compares with
+   * primitive last-value slot) to skip unchanged values without allocating State
+   *
+   * @param key   - unique key
+   * @param value - value to fire
+   * @return ContextEvent
+   */
+  default ContextEvent fireEventIfNotSame(@NotNull String key, float value) {
+    return fireEventIfNotSame(key, new DecimalType(value));
+  }
+
+  /**
+   * Primitive variant of fireEventIfNotSame(...). See fireEventIfNotSame(key, float)
+   */
+  default ContextEvent fireEventIfNotSame(@NotNull String key, boolean value) {
+    return fireEventIfNotSame(key, OnOffType.of(value));
+  }
+
   // go through all discriminators and count if key exists
   int getEventCount(@NotNull String key);
 
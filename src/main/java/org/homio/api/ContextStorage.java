@@ -5,6 +5,7 @@ import org.homio.api.entity.device.DeviceBaseEntity;
 import org.homio.api.exception.NotFoundException;
 import org.homio.api.storage.DataStorageEntity;
 import org.homio.api.storage.DataStorageService;
+import org.homio.api.storage.InMemoryDataStorageService;
 import org.homio.api.util.CommonUtils;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -12,11 +13,14 @@ import org.jetbrains.annotations.Nullable;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
 
 public interface ContextStorage {
 
   Map<Class<? extends BaseEntity>, BaseEntity> ENTITY_CLASS_TO_POJO = new HashMap<>();
+  Map<String, DataStorageService<?>> IN_MEMORY_SERVICES = new ConcurrentHashMap<>();
 
   @NotNull
   Context context();
@@ -77,8 +81,22 @@ public interface ContextStorage {
     return get(entity.getEntityID());
   }
 
+  /**
+   * Save entity in background. Writes of same entity are coalesced and flushed in batches, see DelayedEntityWriter
+   *
+   * @param entity - entity to save
+   * @param <T>    -
+   */
   <T extends BaseEntity> void createDelayed(@NotNull T entity);
 
+  /**
+   * Update entity in background. All consumers queued for same entityID before flush are applied to single entity instance
+   * which saved once, see DelayedEntityWriter
+   *
+   * @param entity              - entity to update
+   * @param fieldUpdateConsumer - apply field changes to entity
+   * @param <T>                 -
+   */
   <T extends BaseEntity> void updateDelayed(@NotNull T entity, @NotNull Consumer<T> fieldUpdateConsumer);
 
   default @NotNull <T extends BaseEntity> T save(@NotNull T entity) {
@@ -120,8 +138,30 @@ public interface ContextStorage {
     return getOrCreateInMemoryService(pojoClass, pojoClass.getSimpleName(), quota);
   }
 
-  <T extends DataStorageEntity> DataStorageService<T> getOrCreateInMemoryService(
-    @NotNull Class<T> pojoClass, @NotNull String uniqueId, @Nullable Long quota);
+  /**
+   * Get or create in-memory time series storage. Default implementation keeps values in columnar ring buffer where quota is
+   * ring size
+   *
+   * @param pojoClass - storage entity class
+   * @param uniqueId  - storage unique id
+   * @param quota     - max number of stored items or null if unbounded. Quota of existed storage is updated
+   * @param <T>       -
+   * @return storage service
+   * @throws IllegalArgumentException if storage with same uniqueId was created for another pojoClass
+   */
+  default <T extends DataStorageEntity> DataStorageService<T> getOrCreateInMemoryService(
+    @NotNull Class<T> pojoClass, @NotNull String uniqueId, @Nullable Long quota) {
+    DataStorageService<?> service = IN_MEMORY_SERVICES.computeIfAbsent(uniqueId, id ->
+      new InMemoryDataStorageService<>(pojoClass, id, quota));
+    if (service instanceof InMemoryDataStorageService<?> inMemoryService && !inMemoryService.getPojoClass().equals(pojoClass)) {
+      throw new IllegalArgumentException("In-memory storage '%s' already exists for %s".formatted(uniqueId,
+        inMemoryService.getPojoClass().getSimpleName()));
+    }
+    if (!Objects.equals(service.getQuota(), quota)) {
+      service.updateQuota(quota);
+    }
+    return (DataStorageService<T>) service;
+  }
 
   List<DeviceBaseEntity> getDeviceEntity(@NotNull String ieeeAddress, @Nullable String typePrefix);
 }
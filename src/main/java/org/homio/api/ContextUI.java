@@ -106,6 +106,7 @@ public interface ContextUI {
    * @param innerEntityID   - target field entity ID to update from inside Set
    * @param updateField     - specific field name to update inside innerEntity
    * @param value           - value to send to UI
+   * @see org.homio.api.ui.UIUpdateBatcher
    */
   void updateInnerSetItem(@NotNull BaseEntityIdentifier parentEntity, @NotNull String parentFieldName, @NotNull String innerEntityID,
                           @NotNull String updateField, @NotNull Object value);
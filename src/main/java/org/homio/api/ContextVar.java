@@ -11,9 +11,13 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.json.JSONObject;
 
+import java.math.BigDecimal;
+import java.math.BigInteger;
 import java.util.List;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
 import java.util.regex.Pattern;
@@ -74,7 +78,11 @@ public interface ContextVar {
   Object set(@NotNull String variableId, @Nullable Object value, boolean fireLinkListener) throws IllegalArgumentException;
 
   default @Nullable Object setIfNotMatch(@NotNull String variableId, @Nullable Object value) {
-    if (!Objects.equals(getRawValue(variableId), value)) {
+    Object oldValue = getRawValue(variableId);
+    // compare numbers by value to not treat i.e. Float 1 and BigDecimal 1.00 as different values
+    boolean same = oldValue instanceof Number n1 && value instanceof Number n2
+      ? isSameNumber(n1, n2) : Objects.equals(oldValue, value);
+    if (!same) {
       return set(variableId, value);
     }
     return value;
@@ -82,7 +90,7 @@ public interface ContextVar {
 
   default @Nullable Object setIfNotMatch(@NotNull String variableId, boolean value) {
     Object oldValue = getRawValue(variableId);
-    if (!Objects.equals(oldValue, value)) {
+    if (!(oldValue instanceof Boolean bool) || bool != value) {
       return set(variableId, value);
     }
     return oldValue;
@@ -90,12 +98,50 @@ public interface ContextVar {
 
   default @Nullable Object setIfNotMatch(@NotNull String variableId, float value) {
     Object oldValue = getRawValue(variableId);
-    if (!Objects.equals(oldValue, value)) {
+    // primitive comparison without boxing value
+    if (!(oldValue instanceof Number number) || number.floatValue() != value) {
       return set(variableId, value);
     }
     return oldValue;
   }
 
+  // exact comparison: long for integral values (double loses precision above 2^53), BigDecimal for mixed types
+  private static boolean isSameNumber(@NotNull Number n1, @NotNull Number n2) {
+    if (isIntegral(n1) && isIntegral(n2)) {
+      return n1.longValue() == n2.longValue();
+    }
+    if ((n1 instanceof Double || n1 instanceof Float) && (n2 instanceof Double || n2 instanceof Float)) {
+      return n1.doubleValue() == n2.doubleValue();
+    }
+    BigDecimal b1 = toBigDecimal(n1);
+    BigDecimal b2 = toBigDecimal(n2);
+    return b1 == null || b2 == null ? n1.doubleValue() == n2.doubleValue() : b1.compareTo(b2) == 0;
+  }
+
+  private static boolean isIntegral(@NotNull Number number) {
+    return number instanceof Long || number instanceof Integer || number instanceof Short || number instanceof Byte
+           || number instanceof AtomicLong || number instanceof AtomicInteger;
+  }
+
+  // null for NaN/Infinity
+  private static @Nullable BigDecimal toBigDecimal(@NotNull Number number) {
+    if (number instanceof BigDecimal bigDecimal) {
+      return bigDecimal;
+    }
+    if (number instanceof BigInteger bigInteger) {
+      return new BigDecimal(bigInteger);
+    }
+    if (isIntegral(number)) {
+      return BigDecimal.valueOf(number.longValue());
+    }
+    if (number instanceof Float f) {
+      // shortest decimal representation, so 0.1f equals to BigDecimal 0.1
+      return Float.isFinite(f) ? new BigDecimal(Float.toString(f)) : null;
+    }
+    double d = number.doubleValue();
+    return Double.isFinite(d) ? BigDecimal.valueOf(d) : null;
+  }
+
   default void inc(@NotNull String variableId, float value) {
     Object o = getRawValue(variableId);
     if (Number.class.isAssignableFrom(o.getClass())) {
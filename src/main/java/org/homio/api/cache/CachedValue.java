@@ -7,7 +7,8 @@ import lombok.SneakyThrows;
 import java.time.Duration;
 
 /**
- * Store cached value. Fetch new value on ttl
+ * Store cached value. Fetch new value on ttl. Not thread safe and keeps single value for all parameters, see
+ * ConcurrentCachedValue for concurrent/parameterized usage
  */
 public class CachedValue<T, P> {
 
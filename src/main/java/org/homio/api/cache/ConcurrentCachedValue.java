@@ -0,0 +1,241 @@
+package org.homio.api.cache;
+
+import com.pivovarit.function.ThrowingFunction;
+import com.pivovarit.function.ThrowingSupplier;
+import lombok.SneakyThrows;
+import lombok.extern.log4j.Log4j2;
+import org.homio.api.ContextBGP;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread safe successor of CachedValue. Keeps separate entry per parameter and loads every entry at most once at a time:
+ * concurrent callers for same expired parameter wait for single fetchHandler call. With refresh-ahead enabled, expired
+ * value is returned immediately while single background refresh runs on ContextBGP. Number of entries may be bounded, least
+ * recently accessed entry is evicted first.
+ */
+@Log4j2
+public class ConcurrentCachedValue<T, P> {
+
+  private static final Object NULL_KEY = new Object();
+  // delay before next load attempt after failed refresh of existed value
+  private static final long FAILURE_BACKOFF = 5_000;
+
+  private final @NotNull ThrowingFunction<P, T, Exception> fetchHandler;
+  private final @NotNull Duration ttl;
+  private final @NotNull Map<Object, Entry> entries = new ConcurrentHashMap<>();
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong staleHits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong loads = new AtomicLong();
+  private final AtomicLong loadFailures = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+  private final AtomicLong totalLoadNanos = new AtomicLong();
+  private int maxSize = Integer.MAX_VALUE;
+  private @Nullable ContextBGP refreshExecutor;
+
+  public ConcurrentCachedValue(@NotNull Duration ttl, @NotNull ThrowingFunction<P, T, Exception> fetchHandler) {
+    this.fetchHandler = fetchHandler;
+    this.ttl = ttl;
+  }
+
+  public ConcurrentCachedValue(@NotNull Duration ttl, @NotNull ThrowingSupplier<T, Exception> fetchHandler) {
+    this(ttl, arg -> fetchHandler.get());
+  }
+
+  /**
+   * Limit number of cached parameters. Least recently accessed entry is evicted when limit exceeded
+   */
+  public ConcurrentCachedValue<T, P> setMaxSize(int maxSize) {
+    this.maxSize = Math.max(1, maxSize);
+    return this;
+  }
+
+  /**
+   * Serve expired value while refreshing it in background. Only first call after expiration waits for value
+   */
+  public ConcurrentCachedValue<T, P> setRefreshAhead(@Nullable ContextBGP bgp) {
+    this.refreshExecutor = bgp;
+    return this;
+  }
+
+  public T getValue() {
+    return getValue(null);
+  }
+
+  @SneakyThrows
+  public T getValue(@Nullable P parameter) {
+    Object key = parameter == null ? NULL_KEY : parameter;
+    Entry entry = entries.get(key);
+    if (entry == null) {
+      entry = entries.computeIfAbsent(key, k -> new Entry());
+      evictIfRequire();
+    }
+    entry.lastAccess = System.currentTimeMillis();
+    if (entry.hasValue) {
+      if (entry.lastCheck + ttl.toMillis() >= entry.lastAccess) {
+        hits.incrementAndGet();
+        return entry.value;
+      }
+      ContextBGP bgp = refreshExecutor;
+      if (bgp != null) {
+        staleHits.incrementAndGet();
+        Load<T> load = entry.startLoading();
+        if (load.owner) {
+          Entry refreshEntry = entry;
+          bgp.execute(() -> load(refreshEntry, parameter, load.future));
+        }
+        return entry.value;
+      }
+    }
+    misses.incrementAndGet();
+    Load<T> load = entry.startLoading();
+    if (load.owner) {
+      if (entry.hasValue && entry.lastCheck + ttl.toMillis() >= System.currentTimeMillis()) {
+        // loaded by other thread right before we became loader
+        entry.finishLoading(load.future);
+        return entry.value;
+      }
+      load(entry, parameter, load.future);
+    }
+    try {
+      return load.future.join();
+    } catch (CompletionException ex) {
+      throw ex.getCause() == null ? ex : ex.getCause();
+    }
+  }
+
+  public void setValue(@Nullable P parameter, T value) {
+    Entry entry = entries.computeIfAbsent(parameter == null ? NULL_KEY : parameter, k -> new Entry());
+    entry.set(value);
+    evictIfRequire();
+  }
+
+  public void setValue(T value) {
+    setValue(null, value);
+  }
+
+  public void invalidate(@Nullable P parameter) {
+    entries.remove(parameter == null ? NULL_KEY : parameter);
+  }
+
+  public void invalidateAll() {
+    entries.clear();
+  }
+
+  public int size() {
+    return entries.size();
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getStaleHits() {
+    return staleHits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  public long getLoads() {
+    return loads.get();
+  }
+
+  public long getLoadFailures() {
+    return loadFailures.get();
+  }
+
+  public long getEvictions() {
+    return evictions.get();
+  }
+
+  public @NotNull Duration getAverageLoadTime() {
+    long count = loads.get();
+    return Duration.ofNanos(count == 0 ? 0 : totalLoadNanos.get() / count);
+  }
+
+  private void load(@NotNull Entry entry, @Nullable P parameter, @NotNull CompletableFuture<T> future) {
+    long start = System.nanoTime();
+    try {
+      T value = fetchHandler.apply(parameter);
+      entry.set(value);
+      future.complete(value);
+    } catch (Exception ex) {
+      loadFailures.incrementAndGet();
+      if (entry.hasValue) {
+        log.warn("Unable to refresh cached value. Keep previous value", ex);
+        // serve stale value and retry not earlier than FAILURE_BACKOFF instead of loading on every call
+        entry.lastCheck = System.currentTimeMillis() - ttl.toMillis() + Math.min(ttl.toMillis(), FAILURE_BACKOFF);
+        future.complete(entry.value);
+      } else {
+        future.completeExceptionally(ex);
+      }
+    } finally {
+      loads.incrementAndGet();
+      totalLoadNanos.addAndGet(System.nanoTime() - start);
+      entry.finishLoading(future);
+    }
+  }
+
+  private void evictIfRequire() {
+    while (entries.size() > maxSize) {
+      Object oldestKey = null;
+      long oldestAccess = Long.MAX_VALUE;
+      for (Map.Entry<Object, Entry> item : entries.entrySet()) {
+        if (item.getValue().lastAccess < oldestAccess) {
+          oldestAccess = item.getValue().lastAccess;
+          oldestKey = item.getKey();
+        }
+      }
+      if (oldestKey == null || entries.remove(oldestKey) == null) {
+        return;
+      }
+      evictions.incrementAndGet();
+    }
+  }
+
+  private class Entry {
+
+    private volatile T value;
+    private volatile boolean hasValue;
+    private volatile long lastCheck;
+    private volatile long lastAccess = System.currentTimeMillis();
+    private @Nullable CompletableFuture<T> loading;
+
+    private void set(T value) {
+      this.value = value;
+      this.lastCheck = System.currentTimeMillis();
+      this.hasValue = true;
+    }
+
+    /**
+     * @return current load if value already loading by someone else or new load owned by caller
+     */
+    private synchronized @NotNull Load<T> startLoading() {
+      if (loading != null) {
+        return new Load<>(loading, false);
+      }
+      loading = new CompletableFuture<>();
+      return new Load<>(loading, true);
+    }
+
+    private synchronized void finishLoading(@NotNull CompletableFuture<T> future) {
+      if (loading == future) {
+        loading = null;
+      }
+    }
+  }
+
+  private record Load<V>(@NotNull CompletableFuture<V> future, boolean owner) {
+
+  }
+}
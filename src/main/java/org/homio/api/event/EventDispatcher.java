@@ -0,0 +1,454 @@
+package org.homio.api.event;
+
+import lombok.extern.log4j.Log4j2;
+import org.homio.api.state.DecimalType;
+import org.homio.api.state.OnOffType;
+import org.homio.api.state.State;
+import org.homio.api.state.StringType;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+/**
+ * Event dispatch engine behind ContextEvent. Exact key listeners are stored as immutable arrays replaced on change so
+ * fireEvent(...) reads them without locking. Result of matching key against all regexp listeners is cached per key and
+ * the cache is dropped only when regexp listeners change. Listener invocations are queued into bounded serial lane per
+ * discriminator (listener without discriminator gets own lane by key/pattern) which runs on shared executor, so slow
+ * consumer only delays own events and never blocks caller of fireEvent(...). Events for full lane are dropped and
+ * counted. Lane is removed when its last listener is removed and queued events are handled.
+ */
+@Log4j2
+public class EventDispatcher {
+
+  private static final KeyListener[] NO_KEY_LISTENERS = new KeyListener[0];
+  private static final PatternListener[] NO_PATTERN_LISTENERS = new PatternListener[0];
+  // drain at most this number of events per lane before giving thread to another lane
+  private static final int LANE_BATCH = 64;
+
+  private final @NotNull Executor executor;
+  private final int laneCapacity;
+  private final int maxCachedKeys;
+  private final @NotNull Map<String, KeyListener[]> keyListeners = new ConcurrentHashMap<>();
+  private final @NotNull Map<String, Lane> lanes = new ConcurrentHashMap<>();
+  private final @NotNull Map<String, State> lastValues = new ConcurrentHashMap<>();
+  private final @NotNull LastValueSlots lastValueSlots = new LastValueSlots();
+  private final @NotNull AtomicLong droppedEvents = new AtomicLong();
+  private final @NotNull Object patternLock = new Object();
+  private volatile @NotNull PatternListener[] patternListeners = NO_PATTERN_LISTENERS;
+  // replaced with new map every time pattern listeners change
+  private volatile @NotNull Map<String, PatternListener[]> patternMatchCache = new ConcurrentHashMap<>();
+
+  /**
+   * @param executor      - executor to run listeners
+   * @param laneCapacity  - max queued events per discriminator
+   * @param maxCachedKeys - max number of keys to keep regexp match results for
+   */
+  public EventDispatcher(@NotNull Executor executor, int laneCapacity, int maxCachedKeys) {
+    this.executor = executor;
+    this.laneCapacity = laneCapacity;
+    this.maxCachedKeys = maxCachedKeys;
+  }
+
+  public EventDispatcher(int threads) {
+    this(createExecutor(threads), 1000, 10_000);
+  }
+
+  public static @NotNull ExecutorService createExecutor(int threads) {
+    AtomicInteger counter = new AtomicInteger();
+    return Executors.newFixedThreadPool(threads, runnable -> {
+      Thread thread = new Thread(runnable, "event-dispatch-" + counter.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  public void addListener(@NotNull String key, @Nullable String discriminator, @Nullable Duration ttl,
+                          @NotNull Consumer<State> listener) {
+    putKeyListener(key, discriminator, ttl, listener);
+  }
+
+  /**
+   * Add listener and fire it immediately if value for key was fired before
+   */
+  public void addBehaviourListener(@NotNull String key, @Nullable String discriminator, @Nullable Duration ttl,
+                                   @NotNull Consumer<State> listener) {
+    KeyListener keyListener = putKeyListener(key, discriminator, ttl, listener);
+    State value = lastValues.get(key);
+    if (value != null) {
+      dispatch(keyListener.lane, () -> listener.accept(value));
+    }
+  }
+
+  /**
+   * Add regexp listener. Fires listener immediately for every key with saved value that matches pattern
+   */
+  public void addPatternListener(@NotNull Pattern pattern, @Nullable String discriminator,
+                                 @NotNull BiConsumer<String, State> listener) {
+    PatternListener patternListener = new PatternListener(pattern, fixDiscriminator(discriminator),
+      acquireLane(discriminator == null ? pattern.pattern() : discriminator), listener);
+    PatternListener replaced = null;
+    synchronized (patternLock) {
+      PatternListener[] listeners = patternListeners;
+      int index = -1;
+      for (int i = 0; i < listeners.length; i++) {
+        if (listeners[i].discriminator.equals(patternListener.discriminator)
+            && listeners[i].pattern.pattern().equals(pattern.pattern())) {
+          index = i;
+          replaced = listeners[i];
+        }
+      }
+      PatternListener[] copy = index == -1 ? Arrays.copyOf(listeners, listeners.length + 1) : listeners.clone();
+      copy[index == -1 ? listeners.length : index] = patternListener;
+      updatePatternListeners(copy);
+    }
+    if (replaced != null) {
+      replaced.lane.release();
+    }
+    for (Map.Entry<String, State> entry : lastValues.entrySet()) {
+      if (pattern.matcher(entry.getKey()).matches()) {
+        dispatch(patternListener.lane, () -> listener.accept(entry.getKey(), entry.getValue()));
+      }
+    }
+  }
+
+  /**
+   * Remove listener by key and discriminator. Null discriminator removes all listeners of key, including regexp
+   * listeners which pattern equals to key
+   */
+  public void removeListener(@Nullable String discriminator, @NotNull String key) {
+    List<Lane> released = new ArrayList<>();
+    keyListeners.computeIfPresent(key, (k, listeners) -> {
+      List<KeyListener> copy = new ArrayList<>(listeners.length);
+      for (KeyListener listener : listeners) {
+        if (discriminator != null && !listener.discriminator.equals(discriminator)) {
+          copy.add(listener);
+        } else {
+          released.add(listener.lane);
+        }
+      }
+      return copy.isEmpty() ? null : copy.toArray(KeyListener[]::new);
+    });
+    synchronized (patternLock) {
+      List<PatternListener> copy = new ArrayList<>(patternListeners.length);
+      for (PatternListener listener : patternListeners) {
+        if (!listener.pattern.pattern().equals(key)
+            || (discriminator != null && !listener.discriminator.equals(discriminator))) {
+          copy.add(listener);
+        } else {
+          released.add(listener.lane);
+        }
+      }
+      if (copy.size() != patternListeners.length) {
+        updatePatternListeners(copy.toArray(PatternListener[]::new));
+      }
+    }
+    released.forEach(Lane::release);
+  }
+
+  /**
+   * Remove all listeners and last saved value of keys
+   */
+  public void removeEvents(@NotNull String key, String... additionalKeys) {
+    removeListener(null, key);
+    lastValues.remove(key);
+    lastValueSlots.remove(key);
+    for (String additionalKey : additionalKeys) {
+      removeListener(null, additionalKey);
+      lastValues.remove(additionalKey);
+      lastValueSlots.remove(additionalKey);
+    }
+  }
+
+  /**
+   * Save value and queue all exact and regexp listeners of key
+   */
+  public void fire(@NotNull String key, @Nullable State value) {
+    lastValueSlots.update(key, value);
+    notifyListeners(key, value);
+  }
+
+  /**
+   * Fire event only if value differs from last fired value
+   *
+   * @return true if event has been fired
+   */
+  public boolean fireIfNotSame(@NotNull String key, @Nullable State value) {
+    if (!lastValueSlots.update(key, value)) {
+      return false;
+    }
+    notifyListeners(key, value);
+    return true;
+  }
+
+  /**
+   * Primitive variant of fireIfNotSame(...). DecimalType created only if value changed
+   */
+  public boolean fireIfNotSame(@NotNull String key, double value) {
+    if (!lastValueSlots.update(key, value)) {
+      return false;
+    }
+    notifyListeners(key, new DecimalType(value));
+    return true;
+  }
+
+  public boolean fireIfNotSame(@NotNull String key, boolean value) {
+    if (!lastValueSlots.update(key, value)) {
+      return false;
+    }
+    notifyListeners(key, OnOffType.of(value));
+    return true;
+  }
+
+  public boolean fireIfNotSame(@NotNull String key, @NotNull String value) {
+    if (!lastValueSlots.update(key, value)) {
+      return false;
+    }
+    notifyListeners(key, new StringType(value));
+    return true;
+  }
+
+  public @Nullable State getLastValue(@NotNull String key) {
+    return lastValues.get(key);
+  }
+
+  public int getListenerCount(@NotNull String key) {
+    return keyListeners.getOrDefault(key, NO_KEY_LISTENERS).length + getPatternListeners(key).length;
+  }
+
+  public long getDroppedEvents() {
+    return droppedEvents.get();
+  }
+
+  /**
+   * @return number of queued but not yet handled events per discriminator
+   */
+  public @NotNull Map<String, Integer> getQueueDepth() {
+    Map<String, Integer> depth = new ConcurrentHashMap<>();
+    lanes.forEach((discriminator, lane) -> depth.put(discriminator, lane.queue.size()));
+    return depth;
+  }
+
+  private void notifyListeners(@NotNull String key, @Nullable State value) {
+    if (value == null) {
+      lastValues.remove(key);
+    } else {
+      lastValues.put(key, value);
+    }
+    KeyListener[] listeners = keyListeners.getOrDefault(key, NO_KEY_LISTENERS);
+    if (listeners.length > 0) {
+      long now = System.currentTimeMillis();
+      boolean hasExpired = false;
+      for (KeyListener listener : listeners) {
+        if (listener.expiresAt < now) {
+          hasExpired = true;
+        } else {
+          dispatch(listener.lane, () -> listener.listener.accept(value));
+        }
+      }
+      if (hasExpired) {
+        removeExpired(key, now);
+      }
+    }
+    for (PatternListener listener : getPatternListeners(key)) {
+      dispatch(listener.lane, () -> listener.listener.accept(key, value));
+    }
+  }
+
+  private @NotNull PatternListener[] getPatternListeners(@NotNull String key) {
+    // read cache before listeners: listeners are replaced before cache, so result computed from stale listeners
+    // can only be put into already abandoned cache
+    Map<String, PatternListener[]> cache = patternMatchCache;
+    PatternListener[] listeners = patternListeners;
+    if (listeners.length == 0) {
+      return NO_PATTERN_LISTENERS;
+    }
+    PatternListener[] matched = cache.get(key);
+    if (matched == null) {
+      matched = Arrays.stream(listeners)
+                      .filter(l -> l.pattern.matcher(key).matches())
+                      .toArray(PatternListener[]::new);
+      if (matched.length == 0) {
+        matched = NO_PATTERN_LISTENERS;
+      }
+      if (cache.size() >= maxCachedKeys) {
+        cache.clear();
+      }
+      cache.put(key, matched);
+    }
+    return matched;
+  }
+
+  private void updatePatternListeners(@NotNull PatternListener[] listeners) {
+    patternListeners = listeners;
+    patternMatchCache = new ConcurrentHashMap<>();
+  }
+
+  private @NotNull KeyListener putKeyListener(@NotNull String key, @Nullable String discriminator,
+                                             @Nullable Duration ttl, @NotNull Consumer<State> listener) {
+    // listener without discriminator gets own lane by key
+    Lane lane = acquireLane(discriminator == null ? key : discriminator);
+    KeyListener keyListener = new KeyListener(fixDiscriminator(discriminator), lane, listener,
+      ttl == null ? Long.MAX_VALUE : System.currentTimeMillis() + ttl.toMillis());
+    KeyListener[] replaced = new KeyListener[1];
+    keyListeners.compute(key, (k, listeners) -> {
+      if (listeners == null) {
+        return new KeyListener[]{keyListener};
+      }
+      // replace listener with same discriminator
+      for (int i = 0; i < listeners.length; i++) {
+        if (listeners[i].discriminator.equals(keyListener.discriminator)) {
+          replaced[0] = listeners[i];
+          KeyListener[] copy = listeners.clone();
+          copy[i] = keyListener;
+          return copy;
+        }
+      }
+      KeyListener[] copy = Arrays.copyOf(listeners, listeners.length + 1);
+      copy[listeners.length] = keyListener;
+      return copy;
+    });
+    if (replaced[0] != null) {
+      replaced[0].lane.release();
+    }
+    return keyListener;
+  }
+
+  private void removeExpired(@NotNull String key, long now) {
+    List<Lane> released = new ArrayList<>();
+    keyListeners.computeIfPresent(key, (k, listeners) -> {
+      List<KeyListener> copy = new ArrayList<>(listeners.length);
+      for (KeyListener listener : listeners) {
+        if (listener.expiresAt >= now) {
+          copy.add(listener);
+        } else {
+          released.add(listener.lane);
+        }
+      }
+      return copy.isEmpty() ? null : copy.toArray(KeyListener[]::new);
+    });
+    released.forEach(Lane::release);
+  }
+
+  private @NotNull Lane acquireLane(@NotNull String name) {
+    while (true) {
+      Lane lane = lanes.computeIfAbsent(name, Lane::new);
+      synchronized (lane) {
+        // lane may be retired between lookup and lock
+        if (!lane.retired) {
+          lane.listeners++;
+          return lane;
+        }
+      }
+    }
+  }
+
+  private void dispatch(@NotNull Lane lane, @NotNull Runnable task) {
+    boolean offered;
+    synchronized (lane) {
+      if (lane.retired) {
+        // all listeners of lane already removed
+        return;
+      }
+      offered = lane.queue.offer(task);
+    }
+    if (!offered) {
+      droppedEvents.incrementAndGet();
+      log.warn("Event queue of '{}' is full. Drop event", lane.name);
+      return;
+    }
+    lane.schedule();
+  }
+
+  private static @NotNull String fixDiscriminator(@Nullable String discriminator) {
+    return discriminator == null ? "" : discriminator;
+  }
+
+  private record KeyListener(@NotNull String discriminator, @NotNull Lane lane, @NotNull Consumer<State> listener,
+                             long expiresAt) {
+
+  }
+
+  private record PatternListener(@NotNull Pattern pattern, @NotNull String discriminator, @NotNull Lane lane,
+                                 @NotNull BiConsumer<String, State> listener) {
+
+  }
+
+  /**
+   * Serial queue of listener invocations of single discriminator
+   */
+  private class Lane implements Runnable {
+
+    private final @NotNull String name;
+    private final @NotNull ArrayBlockingQueue<Runnable> queue;
+    private final @NotNull AtomicBoolean scheduled = new AtomicBoolean(false);
+    // guarded by lane monitor. Number of listeners which dispatch into lane
+    private int listeners;
+    private boolean retired;
+
+    private Lane(@NotNull String name) {
+      this.name = name;
+      this.queue = new ArrayBlockingQueue<>(laneCapacity);
+    }
+
+    private synchronized void release() {
+      listeners--;
+      retireIfIdle();
+    }
+
+    // must be called under lane monitor
+    private void retireIfIdle() {
+      if (listeners <= 0 && !retired && queue.isEmpty() && !scheduled.get()) {
+        retired = true;
+        lanes.remove(name, this);
+      }
+    }
+
+    private void schedule() {
+      if (scheduled.compareAndSet(false, true)) {
+        executor.execute(this);
+      }
+    }
+
+    @Override
+    public void run() {
+      try {
+        for (int i = 0; i < LANE_BATCH; i++) {
+          Runnable task = queue.poll();
+          if (task == null) {
+            break;
+          }
+          try {
+            task.run();
+          } catch (Exception ex) {
+            log.error("Error during handle event by listener '{}'", name, ex);
+          }
+        }
+      } finally {
+        scheduled.set(false);
+        if (!queue.isEmpty()) {
+          schedule();
+        } else {
+          synchronized (this) {
+            retireIfIdle();
+          }
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,113 @@
+package org.homio.api.event;
+
+import org.homio.api.state.DecimalType;
+import org.homio.api.state.OnOffType;
+import org.homio.api.state.State;
+import org.homio.api.state.StringType;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Last value per key stored as raw primitive slot, used to reject repeated values without boxing or allocating new State.
+ * DecimalType, OnOffType and StringType values are compared by primitive/string value, so DecimalType 1.0 and 1.00 or two
+ * different OnOffType instances of same value are treated as same. Any other State falls back to equals().
+ */
+public class LastValueSlots {
+
+  private static final byte NULL = 0;
+  private static final byte NUMBER = 1;
+  private static final byte BOOLEAN = 2;
+  private static final byte STRING = 3;
+  private static final byte OBJECT = 4;
+
+  private final @NotNull Map<String, Slot> slots = new ConcurrentHashMap<>();
+
+  /**
+   * @return true if value differs from last stored value. New value is stored in this case
+   */
+  public boolean update(@NotNull String key, double value) {
+    Slot slot = getSlot(key);
+    long bits = Double.doubleToLongBits(value);
+    synchronized (slot) {
+      if (slot.kind == NUMBER && slot.bits == bits) {
+        return false;
+      }
+      slot.set(NUMBER, bits, null);
+      return true;
+    }
+  }
+
+  public boolean update(@NotNull String key, boolean value) {
+    Slot slot = getSlot(key);
+    long bits = value ? 1 : 0;
+    synchronized (slot) {
+      if (slot.kind == BOOLEAN && slot.bits == bits) {
+        return false;
+      }
+      slot.set(BOOLEAN, bits, null);
+      return true;
+    }
+  }
+
+  public boolean update(@NotNull String key, @Nullable String value) {
+    if (value == null) {
+      return update(key, (State) null);
+    }
+    Slot slot = getSlot(key);
+    synchronized (slot) {
+      if (slot.kind == STRING && value.equals(slot.ref)) {
+        return false;
+      }
+      slot.set(STRING, 0, value);
+      return true;
+    }
+  }
+
+  public boolean update(@NotNull String key, @Nullable State value) {
+    if (value instanceof DecimalType decimal) {
+      return update(key, decimal.doubleValue());
+    }
+    if (value instanceof OnOffType onOff) {
+      return update(key, onOff.isValue());
+    }
+    if (value instanceof StringType str) {
+      return update(key, str.stringValue());
+    }
+    Slot slot = getSlot(key);
+    synchronized (slot) {
+      if (value == null ? slot.kind == NULL : slot.kind == OBJECT && Objects.equals(slot.ref, value)) {
+        return false;
+      }
+      slot.set(value == null ? NULL : OBJECT, 0, value);
+      return true;
+    }
+  }
+
+  public void remove(@NotNull String key) {
+    slots.remove(key);
+  }
+
+  private @NotNull Slot getSlot(@NotNull String key) {
+    Slot slot = slots.get(key);
+    // avoid capturing lambda allocation on hot path when slot already exists
+    return slot == null ? slots.computeIfAbsent(key, k -> new Slot()) : slot;
+  }
+
+  private static class Slot {
+
+    // new slot never matches any value
+    private byte kind = -1;
+    private long bits;
+    private @Nullable Object ref;
+
+    private void set(byte kind, long bits, @Nullable Object ref) {
+      this.kind = kind;
+      this.bits = bits;
+      this.ref = ref;
+    }
+  }
+}
@@ -5,6 +5,7 @@ import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import com.google.common.collect.Lists;
 import com.google.common.primitives.Bytes;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import lombok.Getter;
 import lombok.SneakyThrows;
 import org.apache.commons.io.IOUtils;
@@ -22,15 +23,28 @@ import java.io.InputStream;
 import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
@@ -39,6 +53,11 @@ public abstract class BaseCachedFileSystemProvider<Entity extends BaseFileSystem
   Service extends BaseFSService<FSFile>> implements
   FileSystemProvider {
 
+  private static final long DEFAULT_CACHE_MAX_FILES = 100_000;
+  // shared by all providers. Limits number of concurrent directory listings during tree walk
+  private static final ExecutorService WALK_EXECUTOR = createWalkExecutor(8);
+  private static final Duration WALK_TIMEOUT = Duration.ofMinutes(10);
+
   protected @NotNull
   final Service service;
   protected @NotNull
@@ -54,21 +73,41 @@ public abstract class BaseCachedFileSystemProvider<Entity extends BaseFileSystem
   protected long connectionHashCode;
 
   public BaseCachedFileSystemProvider(@NotNull Entity entity, @NotNull Context context) {
+    this(entity, context, DEFAULT_CACHE_MAX_FILES, Duration.ofHours(1));
+  }
+
+  /**
+   * @param cacheMaxFiles    - max number of files in all cached directory listings. Listing of single directory with more
+   *                         files is not cached
+   * @param cacheExpireAfter - time after which cached listing is reloaded. Null - keep until evicted by size
+   */
+  public BaseCachedFileSystemProvider(@NotNull Entity entity, @NotNull Context context, long cacheMaxFiles,
+                                      @Nullable Duration cacheExpireAfter) {
     this.entity = entity;
     this.context = context;
     this.condition = lock.newCondition();
 
-    this.fileCache = CacheBuilder.newBuilder().
-      expireAfterWrite(1, TimeUnit.HOURS).build(new CacheLoader<>() {
-        public @NotNull List<FSFile> load(@NotNull String id) {
-          try {
-            return service.readChildren(id);
-          } catch (Exception ex) {
-            service.recreate();
-            return service.readChildren(id);
-          }
+    // single segment: guava splits max weight between segments, so with default 4 segments directory heavier than
+    // cacheMaxFiles/4 would be evicted right after load
+    CacheBuilder<String, List<FSFile>> cacheBuilder = CacheBuilder.newBuilder()
+                                                                  .concurrencyLevel(1)
+                                                                  .maximumWeight(cacheMaxFiles)
+                                                                  .weigher((String id, List<FSFile> files) -> files.size() + 1);
+    if (cacheExpireAfter != null) {
+      cacheBuilder.expireAfterWrite(cacheExpireAfter.toMillis(), TimeUnit.MILLISECONDS);
+    }
+    this.fileCache = cacheBuilder.build(new CacheLoader<>() {
+      public @NotNull List<FSFile> load(@NotNull String id) {
+        List<FSFile> files;
+        try {
+          files = service.readChildren(id);
+        } catch (Exception ex) {
+          service.recreate();
+          files = service.readChildren(id);
         }
-      });
+        return new DirectoryListing<>(files);
+      }
+    });
     this.service = createService();
   }
 
@@ -166,7 +205,8 @@ public abstract class BaseCachedFileSystemProvider<Entity extends BaseFileSystem
       FSFile fsFile = getFSFile(id);
       if (fsFile != null) {
         if (service.rm(fsFile)) {
-          this.fileCache.invalidate(getFileParentId(fsFile));
+          invalidateDirectory(getFileParentId(fsFile), false);
+          invalidateDirectory(fsFile.getId(), true);
           files.add(fsFile);
         }
       }
@@ -194,7 +234,7 @@ public abstract class BaseCachedFileSystemProvider<Entity extends BaseFileSystem
     } else {
       service.put(new ByteArrayInputStream(new byte[0]), fullPath);
     }
-    this.fileCache.invalidate(StringUtils.defaultIfEmpty(parentId, getNullParentId()));
+    invalidateDirectory(StringUtils.defaultIfEmpty(parentId, getNullParentId()), false);
     return buildRoot(Collections.singleton(getFSFile(fullPath)), true);
   }
 
@@ -204,6 +244,7 @@ public abstract class BaseCachedFileSystemProvider<Entity extends BaseFileSystem
     List<FSFile> files = fileCache.get(id);
     if (files.size() == 1) {
       FSFile file = files.get(0);
+      String oldId = file.getId();
 
       file.rename(newName);
 
@@ -219,7 +260,8 @@ public abstract class BaseCachedFileSystemProvider<Entity extends BaseFileSystem
       }
 
       service.rename(file.getFilename(), newName);
-      fileCache.invalidate(getFileParentId(file));
+      invalidateDirectory(getFileParentId(file), false);
+      invalidateDirectory(oldId, true);
 
       return buildRoot(Collections.singleton(file), false);
     }
@@ -232,27 +274,54 @@ public abstract class BaseCachedFileSystemProvider<Entity extends BaseFileSystem
                                 @NotNull UploadOption uploadOption) {
     List<FSFile> result = new ArrayList<>();
     copyEntries(entries, targetId, uploadOption, result);
-    fileCache.invalidateAll();
+    invalidateDirectory(targetId, false);
+    for (FSFile file : result) {
+      invalidateDirectory(getFileParentId(file), false);
+    }
     return buildRoot(result, true);
   }
 
+  @Override
+  public @NotNull String getRootId() {
+    return entity.getFileSystemRoot();
+  }
+
+  @Override
+  public @Nullable SearchThread search(@NotNull String rootId, @NotNull SearchParameters searchParameters,
+                                       @NotNull SearchCallback searchCallback) {
+    // stream file content directly from service instead of buffering it in getEntryInputStream(...)
+    return new FileSearchEngine(this, service::getInputStream)
+      .setParallelism(getWalkParallelism())
+      .search(rootId, searchParameters, searchCallback);
+  }
+
   @Override
   public @Nullable Set<TreeNode> loadTreeUpToChild(@Nullable String parent, @NotNull String id) {
     FSFile file = getFSFile(id);
     if (file == null) {
       return null;
     }
-    Set<TreeNode> rootChildren = getChildren(entity.getFileSystemRoot());
-    Set<TreeNode> currentChildren = rootChildren;
     List<String> items = StreamSupport.stream(Paths.get(file.getAbsolutePathWithoutRoot()).spliterator(), false)
       .map(Path::toString).toList();
+    List<String> levelIds = new ArrayList<>(items.size());
     for (int i = 0; i < items.size() - 1; i++) {
+      levelIds.add(i == 0 ? items.get(i) : levelIds.get(i - 1) + "/" + items.get(i));
+    }
+    // load listings of all levels concurrently. getChildren(...) below waits for in-flight loads
+    if (getWalkParallelism() > 1) {
+      for (String levelId : levelIds) {
+        CompletableFuture.runAsync(() -> fileCache.getUnchecked(appendRoot(levelId)), WALK_EXECUTOR);
+      }
+    }
+    Set<TreeNode> rootChildren = getChildren(entity.getFileSystemRoot());
+    Set<TreeNode> currentChildren = rootChildren;
+    for (int i = 0; i < levelIds.size(); i++) {
       String pathItem = items.get(i);
       TreeNode foundedObject = currentChildren
         .stream()
         .filter(c -> c.getName().equals(pathItem)).findAny()
         .orElseThrow(() -> new IllegalStateException("Unable find object: " + pathItem));
-      currentChildren = getChildren(pathItem);
+      currentChildren = getChildren(levelIds.get(i));
       foundedObject.addChildren(currentChildren);
     }
 
@@ -272,10 +341,44 @@ public abstract class BaseCachedFileSystemProvider<Entity extends BaseFileSystem
 
   @Override
   @Nullable
+  @SneakyThrows
   public Set<TreeNode> getChildrenRecursively(@NotNull String parentId) {
-    TreeNode root = new TreeNode();
-    buildTreeNodeRecursively(parentId, root);
-    return root.getChildren();
+    if (getWalkParallelism() <= 1) {
+      // nothing to parallelize - walk in caller thread without executor and timeout
+      TreeNode root = new TreeNode();
+      buildTreeNodeRecursively(parentId, root);
+      return root.getChildren();
+    }
+    CompletableFuture<TreeNode> walk = walkTree(parentId, Integer.MAX_VALUE, null);
+    try {
+      return walk.get(WALK_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS).getChildren();
+    } catch (TimeoutException | InterruptedException ex) {
+      walk.cancel(true);
+      throw ex;
+    } catch (ExecutionException ex) {
+      // rethrow original exception of readChildren(...) instead of executor/cache wrappers
+      Throwable cause = ex.getCause();
+      while ((cause instanceof ExecutionException || cause instanceof UncheckedExecutionException
+              || cause instanceof CompletionException) && cause.getCause() != null) {
+        cause = cause.getCause();
+      }
+      throw cause;
+    }
+  }
+
+  /**
+   * Load directory tree on WALK_EXECUTOR and store listings into fileCache. Listings of sibling directories are
+   * requested concurrently only if getWalkParallelism() > 1, otherwise one by one.
+   *
+   * @param maxDepth    - 1 - only direct children of parentId
+   * @param nodeHandler - receives (parent, child) as soon as child is listed. May be called from different threads
+   * @return root node, completed when whole tree is loaded. Cancel it to stop walking
+   */
+  public @NotNull CompletableFuture<TreeNode> walkTree(@NotNull String parentId, int maxDepth,
+                                                       @Nullable BiConsumer<TreeNode, TreeNode> nodeHandler) {
+    TreeWalk walk = new TreeWalk(new TreeNode(), maxDepth, nodeHandler);
+    walk.submit(parentId, walk.root, 1);
+    return walk.future;
   }
 
   @Override
@@ -283,6 +386,20 @@ public abstract class BaseCachedFileSystemProvider<Entity extends BaseFileSystem
     fileCache.invalidateAll();
   }
 
+  /**
+   * Drop cached listing of single directory
+   *
+   * @param recursive - drop also listings of all nested directories
+   */
+  public void invalidateDirectory(@NotNull String id, boolean recursive) {
+    String key = toCacheKey(id);
+    String prefix = key.endsWith("/") ? key : key + "/";
+    fileCache.asMap().keySet().removeIf(cachedId -> {
+      String cachedKey = toCacheKey(cachedId);
+      return cachedKey.equals(key) || (recursive && cachedKey.startsWith(prefix));
+    });
+  }
+
   public String appendRoot(String id) {
     if (!id.startsWith(entity.getFileSystemRoot())) {
       return fixPath(Paths.get(entity.getFileSystemRoot()).resolve(id));
@@ -299,6 +416,20 @@ public abstract class BaseCachedFileSystemProvider<Entity extends BaseFileSystem
   protected void buildTreeNodeExternal(TreeNode treeNode, FSFile file) {
   }
 
+  /**
+   * Max number of concurrent readChildren(...)/getInputStream(...) calls of single tree walk, search or
+   * loadTreeUpToChild(...). Override only if service is thread safe
+   */
+  protected int getWalkParallelism() {
+    return 1;
+  }
+
+  // same directory may be cached under different ids, i.e. with/without root or leading slash
+  private @NotNull String toCacheKey(@NotNull String id) {
+    String key = appendSlash(fixPath(appendRoot(id)));
+    return key.length() > 1 && key.endsWith("/") ? key.substring(0, key.length() - 1) : key;
+  }
+
   @NotNull
   private String getFileParentId(FSFile fsFile) {
     FSFile parent = fsFile.getParent(true);
@@ -307,9 +438,18 @@ public abstract class BaseCachedFileSystemProvider<Entity extends BaseFileSystem
 
   @SneakyThrows
   private void buildTreeNodeRecursively(@NotNull String parentId, @NotNull TreeNode parent) {
-    for (FSFile file : fileCache.get(appendRoot(parentId))) {
+    List<FSFile> files;
+    try {
+      files = fileCache.get(appendRoot(parentId));
+    } catch (ExecutionException ex) {
+      // same as for concurrent walk - rethrow original exception of readChildren(...)
+      throw ex.getCause() == null ? ex : ex.getCause();
+    }
+    for (FSFile file : files) {
       TreeNode child = parent.addChild(buildTreeNode(file, true));
-      buildTreeNodeRecursively(file.getAbsolutePathWithoutRoot(), child);
+      if (file.isDirectory()) {
+        buildTreeNodeRecursively(file.getId(), child);
+      }
     }
   }
 
@@ -381,15 +521,10 @@ public abstract class BaseCachedFileSystemProvider<Entity extends BaseFileSystem
     try {
       String fileId = appendSlash(appendRoot(id));
       String parentId = StringUtils.defaultIfEmpty(fixPath(Paths.get(fileId).getParent()), getNullParentId());
-      fsFile = fileCache.get(parentId).stream()
-        .filter(c -> {
-          if (c.getId().equals(fileId)) {
-            return true;
-          }
-          String path = appendSlash(fixPath(appendRoot(c.getId())));
-          return path.equals(fileId);
-        })
-        .findAny().orElse(null);
+      Path fileName = Paths.get(fileId).getFileName();
+      if (fileName != null && fileCache.get(parentId) instanceof DirectoryListing<FSFile> listing) {
+        fsFile = listing.getChild(fileName.toString());
+      }
       if (fsFile == null) {
         fsFile = service.getFile(fileId);
         if (fsFile != null) {
@@ -401,6 +536,102 @@ public abstract class BaseCachedFileSystemProvider<Entity extends BaseFileSystem
     return fsFile;
   }
 
+  private static @NotNull ExecutorService createWalkExecutor(int threads) {
+    AtomicInteger counter = new AtomicInteger();
+    return Executors.newFixedThreadPool(threads, runnable -> {
+      Thread thread = new Thread(runnable, "fs-walker-" + counter.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  private class TreeWalk {
+
+    private final @NotNull TreeNode root;
+    private final int maxDepth;
+    private final @Nullable BiConsumer<TreeNode, TreeNode> nodeHandler;
+    private final @NotNull CompletableFuture<TreeNode> future = new CompletableFuture<>();
+    private final int parallelism = Math.max(1, getWalkParallelism());
+    private final @NotNull Queue<Runnable> queue = new ConcurrentLinkedQueue<>();
+    // queued and not finished directory listings
+    private final @NotNull AtomicInteger pending = new AtomicInteger();
+    private int running;
+
+    private TreeWalk(@NotNull TreeNode root, int maxDepth, @Nullable BiConsumer<TreeNode, TreeNode> nodeHandler) {
+      this.root = root;
+      this.maxDepth = maxDepth;
+      this.nodeHandler = nodeHandler;
+    }
+
+    private void submit(@NotNull String directoryId, @NotNull TreeNode node, int depth) {
+      pending.incrementAndGet();
+      queue.add(() -> {
+        try {
+          if (!future.isDone()) {
+            walk(directoryId, node, depth);
+          }
+        } catch (Exception ex) {
+          future.completeExceptionally(ex);
+        } finally {
+          synchronized (this) {
+            running--;
+          }
+          drain();
+          if (pending.decrementAndGet() == 0) {
+            future.complete(root);
+          }
+        }
+      });
+      drain();
+    }
+
+    private synchronized void drain() {
+      Runnable task;
+      while (running < parallelism && (task = queue.poll()) != null) {
+        running++;
+        WALK_EXECUTOR.execute(task);
+      }
+    }
+
+    private void walk(@NotNull String directoryId, @NotNull TreeNode node, int depth) throws Exception {
+      for (FSFile file : fileCache.get(appendRoot(directoryId))) {
+        if (future.isDone()) {
+          return;
+        }
+        TreeNode child = buildTreeNode(file, true);
+        synchronized (node) {
+          child = node.addChild(child);
+        }
+        if (nodeHandler != null) {
+          nodeHandler.accept(node, child);
+        }
+        if (depth < maxDepth && file.isDirectory()) {
+          submit(file.getId(), child, depth + 1);
+        }
+      }
+    }
+  }
+
+  /**
+   * Cached children of directory with name index
+   */
+  private static class DirectoryListing<FSFile extends FsFileEntity<FSFile>> extends ArrayList<FSFile> {
+
+    private final @NotNull Map<String, FSFile> nameIndex;
+
+    private DirectoryListing(@NotNull List<FSFile> files) {
+      super(files);
+      this.nameIndex = new HashMap<>(files.size() * 2);
+      for (FSFile file : files) {
+        nameIndex.put(file.getFilename(), file);
+      }
+    }
+
+    private @Nullable FSFile getChild(@NotNull String name) {
+      return nameIndex.get(name);
+    }
+  }
+
   public interface BaseFSService<FSFile> {
 
     void close();
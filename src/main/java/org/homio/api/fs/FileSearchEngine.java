@@ -0,0 +1,329 @@
+package org.homio.api.fs;
+
+import com.pivovarit.function.ThrowingFunction;
+import lombok.extern.log4j.Log4j2;
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.ArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveInputStream;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.apache.commons.compress.compressors.xz.XZCompressorInputStream;
+import org.apache.commons.lang3.StringUtils;
+import org.homio.api.fs.FileSystemProvider.SearchCallback;
+import org.homio.api.fs.FileSystemProvider.SearchParameters;
+import org.homio.api.fs.FileSystemProvider.SearchThread;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Implementation of FileSystemProvider.search(...) on top of getChildren(...) and entry input stream. Directories are
+ * listed and files are scanned sequentially unless setParallelism(...) is raised; content is read by fixed size chunks,
+ * so files of any size are searched with constant memory. Every hit is passed to SearchCallback.found(...) as soon as found, SearchCallback.done() is called
+ * once when search is finished, cancelled or 'maxResults' reached.
+ */
+@Log4j2
+public class FileSearchEngine {
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final Set<String> ARCHIVE_EXTENSIONS = Set.of(".zip", ".jar", ".war", ".tar", ".tar.gz", ".tgz",
+    ".tar.gz2", ".tar.bz2", ".tar.xz");
+  // shared by all searches
+  private static final ExecutorService EXECUTOR = createExecutor(8);
+
+  private final @NotNull FileSystemProvider fileSystem;
+  private final @NotNull ThrowingFunction<String, InputStream, Exception> inputStreamProvider;
+  private int parallelism = 1;
+
+  public FileSearchEngine(@NotNull FileSystemProvider fileSystem) {
+    this(fileSystem, fileSystem::getEntryInputStream);
+  }
+
+  /**
+   * @param inputStreamProvider - open raw stream of file by id. Should not buffer whole file in memory
+   */
+  public FileSearchEngine(@NotNull FileSystemProvider fileSystem,
+                          @NotNull ThrowingFunction<String, InputStream, Exception> inputStreamProvider) {
+    this.fileSystem = fileSystem;
+    this.inputStreamProvider = inputStreamProvider;
+  }
+
+  /**
+   * Max number of directories listed/files scanned concurrently by single search. Default 1. Set higher
+   * only if provider's getChildren(...)/input stream are thread safe
+   */
+  public @NotNull FileSearchEngine setParallelism(int parallelism) {
+    this.parallelism = Math.max(1, parallelism);
+    return this;
+  }
+
+  /**
+   * Start search in background
+   *
+   * @param rootId - directory to search in. subdirDepth 0 means only direct children of root, negative - unlimited
+   */
+  public @NotNull SearchThread search(@NotNull String rootId, @NotNull SearchParameters parameters,
+                                      @NotNull SearchCallback callback) {
+    Search search = new Search(parameters, callback);
+    search.submit(() -> search.searchDirectory(rootId, 0));
+    return search;
+  }
+
+  private static @NotNull ExecutorService createExecutor(int threads) {
+    AtomicInteger counter = new AtomicInteger();
+    return Executors.newFixedThreadPool(threads, runnable -> {
+      Thread thread = new Thread(runnable, "fs-search-" + counter.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  private static @Nullable PathMatcher createNameMatcher(@Nullable String searchFor) {
+    if (StringUtils.isEmpty(searchFor)) {
+      return null;
+    }
+    String glob = searchFor.toLowerCase();
+    if (!StringUtils.containsAny(glob, '*', '?', '[', '{')) {
+      glob = "*" + glob + "*";
+    }
+    return FileSystems.getDefault().getPathMatcher("glob:" + glob);
+  }
+
+  private static boolean isArchive(@NotNull String name) {
+    String lowerName = name.toLowerCase();
+    for (String extension : ARCHIVE_EXTENSIONS) {
+      if (lowerName.endsWith(extension)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @SuppressWarnings("rawtypes")
+  private static @NotNull ArchiveInputStream openArchive(@NotNull String name, @NotNull InputStream stream) throws IOException {
+    String lowerName = name.toLowerCase();
+    InputStream in = new BufferedInputStream(stream, BUFFER_SIZE);
+    if (lowerName.endsWith(".tar.gz") || lowerName.endsWith(".tgz")) {
+      return new TarArchiveInputStream(new GzipCompressorInputStream(in));
+    } else if (lowerName.endsWith(".tar.gz2") || lowerName.endsWith(".tar.bz2")) {
+      return new TarArchiveInputStream(new BZip2CompressorInputStream(in));
+    } else if (lowerName.endsWith(".tar.xz")) {
+      return new TarArchiveInputStream(new XZCompressorInputStream(in));
+    } else if (lowerName.endsWith(".tar")) {
+      return new TarArchiveInputStream(in);
+    }
+    return new ZipArchiveInputStream(in);
+  }
+
+  private class Search implements SearchThread {
+
+    private final @NotNull SearchParameters parameters;
+    private final @NotNull SearchCallback callback;
+    private final @Nullable PathMatcher nameMatcher;
+    private final @Nullable ContentMatcher contentMatcher;
+    private final @NotNull Queue<Runnable> queue = new ConcurrentLinkedQueue<>();
+    // queued and not finished tasks
+    private final @NotNull AtomicInteger pending = new AtomicInteger();
+    private final @NotNull AtomicInteger found = new AtomicInteger();
+    private final @NotNull AtomicBoolean cancelled = new AtomicBoolean();
+    private final @NotNull AtomicBoolean done = new AtomicBoolean();
+    private int running;
+
+    private Search(@NotNull SearchParameters parameters, @NotNull SearchCallback callback) {
+      this.parameters = parameters;
+      this.callback = callback;
+      this.nameMatcher = createNameMatcher(parameters.searchFor());
+      this.contentMatcher = StringUtils.isEmpty(parameters.searchText()) ? null : new ContentMatcher(parameters);
+    }
+
+    @Override
+    public void cancel() {
+      cancelled.set(true);
+      queue.clear();
+      fireDone();
+    }
+
+    private void submit(@NotNull Runnable task) {
+      pending.incrementAndGet();
+      queue.add(() -> {
+        try {
+          if (!cancelled.get()) {
+            task.run();
+          }
+        } catch (Exception ex) {
+          log.warn("Error during search: {}", ex.getMessage());
+        } finally {
+          synchronized (this) {
+            running--;
+          }
+          drain();
+          if (pending.decrementAndGet() == 0) {
+            fireDone();
+          }
+        }
+      });
+      drain();
+    }
+
+    private synchronized void drain() {
+      Runnable task;
+      while (running < parallelism && (task = queue.poll()) != null) {
+        running++;
+        EXECUTOR.execute(task);
+      }
+    }
+
+    private void searchDirectory(@NotNull String directoryId, int depth) {
+      for (TreeNode child : fileSystem.getChildren(directoryId)) {
+        if (cancelled.get()) {
+          return;
+        }
+        String childId = child.getId();
+        if (childId == null) {
+          continue;
+        }
+        boolean nameMatches = nameMatcher == null || nameMatcher.matches(Path.of(child.getName().toLowerCase()));
+        if (child.getAttributes().isDir()) {
+          if (parameters.searchFolder() && nameMatches && contentMatcher == null) {
+            found(child);
+          }
+          if (parameters.subdirDepth() < 0 || depth < parameters.subdirDepth()) {
+            submit(() -> searchDirectory(childId, depth + 1));
+          }
+        } else if (parameters.searchFiles() && nameMatches) {
+          if (contentMatcher == null) {
+            found(child);
+          } else {
+            submit(() -> searchContent(child));
+          }
+        }
+      }
+    }
+
+    private void searchContent(@NotNull TreeNode file) {
+      boolean contains;
+      try (InputStream stream = inputStreamProvider.apply(file.getId())) {
+        if (parameters.searchInArchive() && isArchive(file.getName())) {
+          contains = archiveContains(file.getName(), stream);
+        } else {
+          contains = contentMatcher.contains(stream, cancelled::get);
+        }
+      } catch (Exception ex) {
+        log.debug("Unable to search in file: {}. {}", file.getId(), ex.getMessage());
+        return;
+      }
+      if (contains != parameters.revertSearch() && !cancelled.get()) {
+        found(file);
+      }
+    }
+
+    @SuppressWarnings("rawtypes")
+    private boolean archiveContains(@NotNull String name, @NotNull InputStream stream) throws IOException {
+      ArchiveInputStream archive = openArchive(name, stream);
+      ArchiveEntry entry;
+      while ((entry = archive.getNextEntry()) != null && !cancelled.get()) {
+        if (!entry.isDirectory() && archive.canReadEntryData(entry) && contentMatcher.contains(archive, cancelled::get)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    private void found(@NotNull TreeNode treeNode) {
+      int count = found.incrementAndGet();
+      int maxResults = parameters.maxResults();
+      if (maxResults > 0 && count > maxResults) {
+        return;
+      }
+      synchronized (callback) {
+        if (!done.get()) {
+          callback.found(treeNode);
+        }
+      }
+      if (count == maxResults) {
+        cancel();
+      }
+    }
+
+    private void fireDone() {
+      synchronized (callback) {
+        if (done.compareAndSet(false, true)) {
+          callback.done();
+        }
+      }
+    }
+  }
+
+  /**
+   * Finds text in stream chunk by chunk. Tail of previous chunk is kept, so text that crosses chunk boundary is found as
+   * well
+   */
+  static class ContentMatcher {
+
+    private final @NotNull Pattern pattern;
+    // chars kept from previous chunk: text length + 1 char for word boundary check
+    private final int overlap;
+
+    ContentMatcher(@NotNull SearchParameters parameters) {
+      String text = Pattern.quote(parameters.searchText());
+      if (parameters.wholeWordsOnly()) {
+        text = "(?<!\\w)" + text + "(?!\\w)";
+      }
+      this.pattern = Pattern.compile(text, parameters.caseSensitive() ? 0 : Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+      this.overlap = parameters.searchText().length() + 1;
+    }
+
+    boolean contains(@NotNull InputStream stream, @NotNull BooleanSupplier cancelled) throws IOException {
+      // channel is not closed: closing it closes stream, i.e. archive stream with next entries
+      ReadableByteChannel channel = Channels.newChannel(stream);
+      CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                                                     .onMalformedInput(CodingErrorAction.REPLACE)
+                                                     .onUnmappableCharacter(CodingErrorAction.REPLACE);
+      ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE);
+      CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE + overlap);
+      boolean eof = false;
+      while (!eof && !cancelled.getAsBoolean()) {
+        eof = channel.read(bytes) == -1;
+        bytes.flip();
+        decoder.decode(bytes, chars, eof);
+        if (eof) {
+          decoder.flush(chars);
+        }
+        bytes.compact();
+        chars.flip();
+        Matcher matcher = pattern.matcher(chars);
+        // match at the end of chunk may be incomplete (i.e. next char breaks whole word) - check it with next chunk
+        if (matcher.find() && (eof || matcher.end() < chars.limit())) {
+          return true;
+        }
+        chars.position(Math.max(0, chars.limit() - overlap));
+        chars.compact();
+      }
+      return false;
+    }
+  }
+}
@@ -66,12 +66,30 @@ public interface FileSystemProvider {
     return copy(Collections.singletonList(entry), targetId, uploadOption);
   }
 
-  // method has to search for files/folders in thread
+  /**
+   * Id of root directory of file system. Used as default search root. Null if provider has no single root
+   */
+  default @Nullable String getRootId() {
+    return null;
+  }
+
+  // method has to search for files/folders in thread. Ignored if provider doesn't define getRootId()
   default @Nullable SearchThread search(@NotNull SearchParameters searchParameters,
                                         @NotNull SearchCallback searchCallback) {
-    return () -> {
-      // just ignore
-    };
+    String rootId = getRootId();
+    if (rootId == null) {
+      searchCallback.done();
+      return () -> {
+        // nothing to cancel
+      };
+    }
+    return search(rootId, searchParameters, searchCallback);
+  }
+
+  // search sequentially under rootId. Providers that are thread safe may use FileSearchEngine.setParallelism(...)
+  default @Nullable SearchThread search(@NotNull String rootId, @NotNull SearchParameters searchParameters,
+                                        @NotNull SearchCallback searchCallback) {
+    return new FileSearchEngine(this).search(rootId, searchParameters, searchCallback);
   }
 
   @Nullable
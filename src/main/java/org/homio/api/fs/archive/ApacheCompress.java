@@ -5,9 +5,17 @@ import lombok.SneakyThrows;
 import org.apache.commons.compress.archivers.ArchiveEntry;
 import org.apache.commons.compress.archivers.ArchiveInputStream;
 import org.apache.commons.compress.archivers.ArchiveOutputStream;
+import org.apache.commons.compress.archivers.sevenz.SevenZArchiveEntry;
 import org.apache.commons.compress.archivers.sevenz.SevenZFile;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.zip.UnicodePathExtraField;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
 import org.homio.api.exception.ServerException;
+import org.homio.api.fs.TreeNode;
 import org.homio.api.util.CommonUtils;
 import org.homio.hquery.ProgressBar;
 import org.jetbrains.annotations.NotNull;
@@ -19,6 +27,8 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
@@ -30,8 +40,19 @@ import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.UnaryOperator;
+import java.util.zip.ZipException;
 
 import static org.apache.commons.compress.archivers.examples.Archiver.EMPTY_FileVisitOption;
 import static org.apache.commons.compress.utils.IOUtils.EMPTY_LINK_OPTIONS;
@@ -155,6 +176,169 @@ public class ApacheCompress {
     return paths;
   }
 
+  /**
+   * Extract zip/jar/war using central directory. Directories are created up front, then files are distributed between
+   * 'threads' workers balanced by size; every worker reads own ZipFile instance and writes through FileChannel. Progress is
+   * aggregated over all workers.
+   */
+  public static List<Path> unzipZipParallel(@NotNull Path archive, @NotNull Path destination,
+                                            @NotNull ArchiveUtil.UnzipFileIssueHandler fileResolveHandler,
+                                            double fileSize, @Nullable ProgressBar progressBar, int threads) throws Exception {
+    List<Path> paths = new ArrayList<>();
+    List<ZipArchiveEntry> files = new ArrayList<>();
+    Path root = destination.toAbsolutePath().normalize();
+    try (ZipFile zipFile = new ZipFile(archive.toFile())) {
+      Enumeration<ZipArchiveEntry> entries = zipFile.getEntriesInPhysicalOrder();
+      while (entries.hasMoreElements()) {
+        ZipArchiveEntry entry = entries.nextElement();
+        if (!zipFile.canReadEntryData(entry)) {
+          continue;
+        }
+        Path entryPath = resolveEntryPath(root, entry.getName());
+        Path directory = entry.isDirectory() ? entryPath : entryPath.getParent();
+        if (!Files.isDirectory(directory)) {
+          paths.add(Files.createDirectories(directory));
+        }
+        if (entry.isDirectory()) {
+          continue;
+        }
+        if (Files.exists(entryPath)) {
+          if (fileResolveHandler == ArchiveUtil.UnzipFileIssueHandler.skip) {
+            continue;
+          } else if (fileResolveHandler == ArchiveUtil.UnzipFileIssueHandler.error) {
+            throw new FileAlreadyExistsException("Unarchive file '" + entry.getName() + "' already exists");
+          }
+        }
+        files.add(entry);
+      }
+    }
+    if (files.isEmpty()) {
+      return paths;
+    }
+
+    // largest files first to the least loaded worker
+    int workers = Math.max(1, Math.min(threads, files.size()));
+    List<List<ZipArchiveEntry>> partitions = new ArrayList<>(workers);
+    long[] partitionSizes = new long[workers];
+    for (int i = 0; i < workers; i++) {
+      partitions.add(new ArrayList<>());
+    }
+    files.sort(Comparator.comparingLong(ZipArchiveEntry::getSize).reversed());
+    for (ZipArchiveEntry entry : files) {
+      int index = 0;
+      for (int i = 1; i < workers; i++) {
+        if (partitionSizes[i] < partitionSizes[index]) {
+          index = i;
+        }
+      }
+      partitions.get(index).add(entry);
+      partitionSizes[index] += Math.max(entry.getSize(), 0);
+    }
+
+    ExtractProgress progress = new ExtractProgress(progressBar, fileSize);
+    AtomicInteger counter = new AtomicInteger();
+    ExecutorService executor = Executors.newFixedThreadPool(workers, runnable -> {
+      Thread thread = new Thread(runnable, "unzip-" + counter.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    try {
+      List<Future<List<Path>>> futures = new ArrayList<>(workers);
+      for (List<ZipArchiveEntry> partition : partitions) {
+        futures.add(executor.submit(() -> extractZipEntries(archive, root, partition, fileResolveHandler, progress)));
+      }
+      for (Future<List<Path>> future : futures) {
+        try {
+          paths.addAll(future.get());
+        } catch (ExecutionException ex) {
+          progress.cancelled = true;
+          throw ex.getCause() instanceof Exception cause ? cause : ex;
+        }
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    return paths;
+  }
+
+  private static List<Path> extractZipEntries(@NotNull Path archive, @NotNull Path root, @NotNull List<ZipArchiveEntry> entries,
+                                              @NotNull ArchiveUtil.UnzipFileIssueHandler fileResolveHandler,
+                                              @NotNull ExtractProgress progress) throws IOException {
+    List<Path> paths = new ArrayList<>(entries.size());
+    byte[] buffer = new byte[64 * 1024];
+    try (ZipFile zipFile = new ZipFile(archive.toFile())) {
+      for (ZipArchiveEntry entry : entries) {
+        if (progress.cancelled) {
+          break;
+        }
+        Path entryPath = resolveEntryPath(root, entry.getName());
+        if (fileResolveHandler == ArchiveUtil.UnzipFileIssueHandler.replaceNotMatch && Files.exists(entryPath)) {
+          try (InputStream stream = zipFile.getInputStream(entry); InputStream existed = Files.newInputStream(entryPath)) {
+            if (IOUtils.contentEquals(stream, existed)) {
+              progress.written(Math.max(entry.getSize(), 0));
+              continue;
+            }
+          }
+        }
+        try (InputStream stream = zipFile.getInputStream(entry);
+             FileChannel channel = FileChannel.open(entryPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+               StandardOpenOption.TRUNCATE_EXISTING)) {
+          int read;
+          while ((read = stream.read(buffer)) != -1) {
+            ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, read);
+            while (byteBuffer.hasRemaining()) {
+              channel.write(byteBuffer);
+            }
+            progress.written(read);
+          }
+        }
+        paths.add(entryPath);
+      }
+    }
+    return paths;
+  }
+
+  // protect from entries like '../../file' which point outside of destination
+  private static @NotNull Path resolveEntryPath(@NotNull Path root, @NotNull String entryName) throws IOException {
+    Path entryPath = root.resolve(entryName).normalize();
+    if (!entryPath.startsWith(root)) {
+      throw new IOException("Archive entry '" + entryName + "' is outside of target directory");
+    }
+    return entryPath;
+  }
+
+  private static class ExtractProgress {
+
+    private final @Nullable ProgressBar progressBar;
+    private final double fileSize;
+    private final AtomicLong written = new AtomicLong();
+    private volatile boolean cancelled;
+    private long nextStep = ONE_MB_BI.longValue();
+
+    private ExtractProgress(@Nullable ProgressBar progressBar, double fileSize) {
+      this.progressBar = progressBar;
+      this.fileSize = fileSize;
+    }
+
+    private void written(long bytes) {
+      long total = written.addAndGet(bytes);
+      if (progressBar == null) {
+        return;
+      }
+      if (progressBar.isCancelled()) {
+        cancelled = true;
+        throw new ServerException("Unarchive task cancelled");
+      }
+      synchronized (this) {
+        if (total >= nextStep) {
+          nextStep = total + ONE_MB_BI.longValue();
+          progressBar.progress(Math.min(total / fileSize * 100, 100) * 0.99, // max 99%
+            "Extract " + total / ONE_MB_BI.longValue() + "Mb. of " + (long) (fileSize / ONE_MB_BI.longValue()) + " Mb.");
+        }
+      }
+    }
+  }
+
   @SneakyThrows
   public static InputStream downloadEntry(@NotNull ArchiveInputStream stream, @NotNull String entryName) {
     ArchiveEntry entry;
@@ -240,6 +424,145 @@ public class ApacheCompress {
     return files;
   }
 
+  /**
+   * Copy zip/jar/war into target without decompression: untouched and renamed entries are copied as raw compressed bytes,
+   * only added entries are compressed.
+   *
+   * @param entryMapper - returns new entry name, or null to skip entry
+   * @param additions   - entries to add into archive root. Existed entries with same names are replaced
+   */
+  public static void rewriteZip(@NotNull Path archive, @NotNull Path target, @NotNull UnaryOperator<String> entryMapper,
+                                @NotNull Collection<TreeNode> additions) throws IOException {
+    UnaryOperator<String> mapper = skipReplaced(entryMapper, additions);
+    try (ZipFile zipFile = new ZipFile(archive.toFile());
+         ZipArchiveOutputStream out = new ZipArchiveOutputStream(target.toFile())) {
+      Enumeration<ZipArchiveEntry> entries = zipFile.getEntriesInPhysicalOrder();
+      while (entries.hasMoreElements()) {
+        ZipArchiveEntry entry = entries.nextElement();
+        String name = mapper.apply(entry.getName());
+        if (name == null) {
+          continue;
+        }
+        ZipArchiveEntry targetEntry = name.equals(entry.getName()) ? entry : new RenamedZipEntry(entry, name);
+        try (InputStream raw = zipFile.getRawInputStream(entry)) {
+          out.addRawArchiveEntry(targetEntry, raw);
+        }
+      }
+      addFiles("", additions, out, true);
+      out.finish();
+    }
+  }
+
+  /**
+   * Stream all entries from input to output archive. Used for formats without raw entry access (tar*, 7z): entries are
+   * copied without extracting archive to disk
+   *
+   * @param entryMapper - returns new entry name, or null to skip entry
+   * @param additions   - entries to add into archive root. Existed entries with same names are replaced
+   */
+  public static void rewrite(@NotNull ArchiveInputStream in, @NotNull ArchiveOutputStream out,
+                             @NotNull UnaryOperator<String> entryMapper, @NotNull Collection<TreeNode> additions)
+    throws IOException {
+    UnaryOperator<String> mapper = skipReplaced(entryMapper, additions);
+    try (in; out) {
+      ArchiveEntry entry;
+      while ((entry = in.getNextEntry()) != null) {
+        String name = mapper.apply(entry.getName());
+        if (name == null) {
+          continue;
+        }
+        if (!in.canReadEntryData(entry)) {
+          // skipping would silently lose entry in rewritten archive
+          throw new IOException("Unable to read archive entry: " + entry.getName());
+        }
+        if (!name.equals(entry.getName())) {
+          if (entry instanceof TarArchiveEntry tarEntry) {
+            tarEntry.setName(name);
+          } else if (entry instanceof SevenZArchiveEntry sevenZEntry) {
+            sevenZEntry.setName(name);
+          } else {
+            throw new IllegalStateException("Unable to rename archive entry: " + entry.getName());
+          }
+        }
+        out.putArchiveEntry(entry);
+        if (!entry.isDirectory()) {
+          IOUtils.copyLarge(in, out);
+        }
+        out.closeArchiveEntry();
+      }
+      addFiles("", additions, out, false);
+      out.finish();
+    }
+  }
+
+  private static @NotNull UnaryOperator<String> skipReplaced(@NotNull UnaryOperator<String> entryMapper,
+                                                             @NotNull Collection<TreeNode> additions) {
+    Set<String> addedNames = new HashSet<>();
+    collectNames("", additions, addedNames);
+    if (addedNames.isEmpty()) {
+      return entryMapper;
+    }
+    return name -> {
+      String newName = entryMapper.apply(name);
+      return newName == null || addedNames.contains(StringUtils.removeEnd(newName, "/")) ? null : newName;
+    };
+  }
+
+  private static void collectNames(@NotNull String parent, @Nullable Collection<TreeNode> files,
+                                   @NotNull Set<String> names) {
+    if (files != null) {
+      for (TreeNode file : files) {
+        String name = parent + file.getName();
+        if (!file.getAttributes().isDir()) {
+          names.add(name);
+        } else {
+          collectNames(name + "/", file.getChildren(true), names);
+        }
+      }
+    }
+  }
+
+  private static void addFiles(@NotNull String parent, @Nullable Collection<TreeNode> files, @NotNull ArchiveOutputStream out,
+                               boolean zip) throws IOException {
+    if (files == null) {
+      return;
+    }
+    for (TreeNode file : files) {
+      String name = parent + file.getName();
+      boolean isDirectory = file.getAttributes().isDir();
+      if (zip) {
+        // zip entry size is written after data, so no need to know it in advance
+        out.putArchiveEntry(new ZipArchiveEntry(isDirectory ? name + "/" : name));
+        if (!isDirectory) {
+          try (InputStream stream = file.getInputStream()) {
+            IOUtils.copyLarge(stream, out);
+          }
+        }
+        out.closeArchiveEntry();
+      } else {
+        // tar/7z entries need size and attributes of real file
+        Path tmpFile = isDirectory ? Files.createTempDirectory("archive_entry") : Files.createTempFile("archive_entry", null);
+        try {
+          if (!isDirectory) {
+            try (InputStream stream = file.getInputStream()) {
+              Files.copy(stream, tmpFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+          }
+          out.putArchiveEntry(out.createArchiveEntry(tmpFile.toFile(), isDirectory ? name + "/" : name));
+          if (!isDirectory) {
+            Files.copy(tmpFile, out);
+          }
+          out.closeArchiveEntry();
+        } finally {
+          Files.deleteIfExists(tmpFile);
+        }
+      }
+      if (isDirectory) {
+        addFiles(name + "/", file.getChildren(true), out, zip);
+      }
+    }
+  }
+
   private static void writeZipEntry(Path path, boolean isFile, Path directory, ArchiveOutputStream target) throws IOException {
     String name = directory.relativize(path).toString().replace('\\', '/');
     if (!name.isEmpty()) {
@@ -253,6 +576,21 @@ public class ApacheCompress {
     }
   }
 
+  /**
+   * Copy of zip entry with all metadata (method, sizes, crc, attributes, platform, extra fields) but new name
+   */
+  private static class RenamedZipEntry extends ZipArchiveEntry {
+
+    private RenamedZipEntry(@NotNull ZipArchiveEntry entry, @NotNull String name) throws ZipException {
+      super(entry);
+      setName(name);
+      // unicode path field holds old name and takes precedence over entry name in readers
+      if (getExtraField(UnicodePathExtraField.UPATH_ID) != null) {
+        removeExtraField(UnicodePathExtraField.UPATH_ID);
+      }
+    }
+  }
+
   @AllArgsConstructor
   private static class ArchiverFileVisitor extends SimpleFileVisitor<Path> {
 
@@ -1,6 +1,5 @@
 package org.homio.api.fs.archive;
 
-import com.pivovarit.function.ThrowingBiConsumer;
 import com.pivovarit.function.ThrowingPredicate;
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
@@ -11,11 +10,11 @@ import org.apache.commons.compress.archivers.ArchiveInputStream;
 import org.apache.commons.compress.archivers.ArchiveOutputStream;
 import org.apache.commons.compress.archivers.jar.JarArchiveInputStream;
 import org.apache.commons.compress.archivers.jar.JarArchiveOutputStream;
-import org.apache.commons.compress.archivers.sevenz.SevenZArchiveEntry;
 import org.apache.commons.compress.archivers.sevenz.SevenZFile;
 import org.apache.commons.compress.archivers.sevenz.SevenZOutputFile;
 import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
 import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
 import org.apache.commons.compress.archivers.zip.ZipArchiveInputStream;
 import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
 import org.apache.commons.compress.archivers.zip.ZipFile;
@@ -39,6 +38,7 @@ import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.FileSystem;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
@@ -47,12 +47,13 @@ import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.Date;
+import java.util.Enumeration;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.function.UnaryOperator;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import java.util.zip.Deflater;
@@ -273,18 +274,6 @@ public final class ArchiveUtil {
     return pathList.stream().map(ArchiveUtil::fixPath).collect(Collectors.toSet());
   }
 
-  private static void writeSeven7ArchiveEntry(boolean isDirectory, @NotNull TreeNode treeNode, @NotNull SevenZOutputFile sevenZOutput)
-    throws IOException {
-    SevenZArchiveEntry entry = new SevenZArchiveEntry();
-    entry.setDirectory(isDirectory);
-    entry.setName(treeNode.getName());
-    Long lastUpdated = treeNode.getAttributes().getLastUpdated();
-    entry.setLastModifiedDate(new Date(lastUpdated == null ? System.currentTimeMillis() : lastUpdated));
-    sevenZOutput.putArchiveEntry(entry);
-    sevenZOutput.write(treeNode.getInputStream());
-    sevenZOutput.closeArchiveEntry();
-  }
-
   private void downloadArchiveEntries(@NotNull Path archive, @NotNull Path targetPath, @NotNull Set<String> entries, boolean isSkipExisted) {
     ArchiveFormat.getHandlerByPath(archive).downloadArchiveEntries(archive, targetPath, entries, isSkipExisted);
   }
@@ -399,6 +388,9 @@ public final class ArchiveUtil {
         }
       });
 
+    // max number of files extracted concurrently from zip
+    private static final int UNZIP_THREADS = Math.min(8, Math.max(2, Runtime.getRuntime().availableProcessors()));
+
     private final String name;
     private final boolean hasBuildInFileSystem;
     private final ThrowingPredicate<Path, Exception> validateHandler;
@@ -425,6 +417,17 @@ public final class ArchiveUtil {
     }
 
     public long size(@NotNull Path archive, char[] password) throws Exception {
+      if (isZip()) {
+        // read sizes from central directory instead of reading whole archive
+        long fullSize = 0;
+        try (ZipFile zipFile = new ZipFile(archive.toFile())) {
+          Enumeration<ZipArchiveEntry> entries = zipFile.getEntries();
+          while (entries.hasMoreElements()) {
+            fullSize += Math.max(entries.nextElement().getSize(), 0);
+          }
+        }
+        return fullSize;
+      }
       return size(createInputStreamProducer.createStream(archive, password));
     }
 
@@ -454,6 +457,9 @@ public final class ArchiveUtil {
     public List<Path> unzip(@NotNull Path archive, @NotNull Path destination, char[] password,
                             @Nullable ProgressBar progressBar, @NotNull UnzipFileIssueHandler handler, double fileSize)
       throws Exception {
+      if (isZip()) {
+        return ApacheCompress.unzipZipParallel(archive, destination, handler, fileSize, progressBar, UNZIP_THREADS);
+      }
       return ApacheCompress.unzipCompress(createInputStreamProducer.createStream(archive, password), destination, handler,
         fileSize, progressBar);
     }
@@ -471,11 +477,14 @@ public final class ArchiveUtil {
         }
       }
 
-      modifyArchive(archive, (tmpPath, list) -> {
-        Path entryPath = tmpPath.resolve(entryName);
-        Path newPath = entryPath.resolveSibling(newName);
-        Files.move(entryPath, newPath);
-      });
+      String sourceName = StringUtils.removeEnd(entryName, "/");
+      String targetName = sourceName.substring(0, sourceName.lastIndexOf('/') + 1) + newName;
+      rewriteArchive(archive, null, name -> {
+        if (StringUtils.removeEnd(name, "/").equals(sourceName)) {
+          return targetName + (name.endsWith("/") ? "/" : "");
+        }
+        return name.startsWith(sourceName + "/") ? targetName + name.substring(sourceName.length()) : name;
+      }, List.of());
     }
 
     @SneakyThrows
@@ -486,17 +495,8 @@ public final class ArchiveUtil {
             archiveFS.getPath(path.toString() + treeNode.getName()));
         }
         return;
-      } else if (this == sevenZ) {
-        SevenZOutputFile sevenZOutput = new SevenZOutputFile(archive.toFile());
-        CommonUtils.addFiles(Paths.get(""), files, (path, treeNode) -> path.resolve(treeNode.getName()),
-          (treeNode, path) -> writeSeven7ArchiveEntry(false, treeNode, sevenZOutput),
-          (treeNode, path) -> writeSeven7ArchiveEntry(true, treeNode, sevenZOutput));
-        sevenZOutput.close();
-        return;
       }
-      modifyArchive(archive,
-        (tmpPath, list) -> CommonUtils.addFiles(tmpPath, files,
-          (path, treeNode) -> path.resolve(treeNode.getName())));
+      rewriteArchive(archive, null, name -> name, files);
     }
 
     @SneakyThrows
@@ -516,15 +516,25 @@ public final class ArchiveUtil {
         }
         return removedItems;
       }
-      Set<String> entryNamesToRemove = entryNames;
-      modifyArchive(archive, (path, list) -> {
-        for (Path item : list) {
-          String pathName = path.relativize(item).toString().replaceAll("\\\\", "/");
-          if (entryNamesToRemove.contains(pathName)) {
-            removedItems.addAll(CommonUtils.removeFileOrDirectory(item));
+      Set<String> entryNamesToRemove = new HashSet<>();
+      for (String entryName : entryNames) {
+        entryNamesToRemove.add(StringUtils.removeEnd(entryName, "/"));
+      }
+      rewriteArchive(archive, password, name -> {
+        // remove entry itself or any of its parent directories
+        String path = StringUtils.removeEnd(name, "/");
+        while (true) {
+          if (entryNamesToRemove.contains(path)) {
+            removedItems.add(Paths.get(name));
+            return null;
           }
+          int index = path.lastIndexOf('/');
+          if (index == -1) {
+            return name;
+          }
+          path = path.substring(0, index);
         }
-      });
+      }, List.of());
       return removedItems;
     }
 
@@ -533,20 +543,36 @@ public final class ArchiveUtil {
       return name;
     }
 
+    /**
+     * Write modified copy of archive next to it and replace original. Archive is never extracted to disk
+     *
+     * @param entryMapper - returns new entry name, or null to remove entry
+     */
     @SneakyThrows
-    private void modifyArchive(Path archive, ThrowingBiConsumer<Path, List<Path>, Exception> consumer) {
-      Path tmpPath = CommonUtils.getTmpPath().resolve("tmp_archive_" + System.currentTimeMillis());
-      Files.createDirectories(tmpPath);
+    private void rewriteArchive(@NotNull Path archive, char[] password, @NotNull UnaryOperator<String> entryMapper,
+                                @NotNull Collection<TreeNode> additions) {
+      Path tmpArchive = archive.resolveSibling(archive.getFileName() + ".tmp_" + System.currentTimeMillis());
       try {
-        List<Path> list = unzip(archive, tmpPath, null, null, UnzipFileIssueHandler.replace, 0);
-        consumer.accept(tmpPath, list);
-        Files.delete(archive);
-        zip(tmpPath, archive, null, null, null);
+        if (isZip()) {
+          ApacheCompress.rewriteZip(archive, tmpArchive, entryMapper, additions);
+        } else {
+          ApacheCompress.rewrite(createInputStreamProducer.createStream(archive, password),
+            createOutputStreamProducer.createStream(tmpArchive, null, password), entryMapper, additions);
+        }
+        try {
+          Files.move(tmpArchive, archive, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException ex) {
+          Files.move(tmpArchive, archive, StandardCopyOption.REPLACE_EXISTING);
+        }
       } finally {
-        FileUtils.deleteDirectory(tmpPath.toFile());
+        Files.deleteIfExists(tmpArchive);
       }
     }
 
+    private boolean isZip() {
+      return this == zip || this == jar || this == war;
+    }
+
     private long size(ArchiveInputStream stream) throws Exception {
       long fullSize = 0;
       ArchiveEntry entry;
@@ -4,6 +4,7 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.SeekableByteChannel;
 import java.nio.file.AccessMode;
@@ -32,9 +33,12 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -55,6 +59,17 @@ public abstract class AbstractTarFileSystem extends FileSystem {
   private final boolean createNew; // create a new tar if not exists
   private final ReadWriteLock rwlock = new ReentrantReadWriteLock();
   private final Map<TarEntry, byte[]> entriesToData;
+  // normalized entry name (no leading/trailing '/') -> entry
+  private final Map<String, TarEntry> nameIndex = new HashMap<>();
+  // normalized directory name -> normalized names of direct children. Root is "". Contains implicit parent directories
+  private final Map<String, Set<String>> childrenIndex = new HashMap<>();
+  // indexed mode: uncompressed tar is memory-mapped on demand, entriesToData keeps null for entries that still live in file
+  private final boolean indexed;
+  private FileChannel tarChannel;
+  // position of end-of-archive blocks in tar file. new entries are appended here
+  private long appendOffset;
+  // entry stored in file was removed or changed. whole archive has to be rewritten on close
+  private boolean rewriteRequired;
   private boolean readOnly = false;
   private volatile boolean isOpen = true;
 
@@ -64,7 +79,8 @@ public abstract class AbstractTarFileSystem extends FileSystem {
     createNew = "true".equals(env.get("create"));
     defaultDir = env.containsKey("default.dir") ? (String) env
       .get("default.dir") : "/";
-    entriesToData = new HashMap<>();
+    entriesToData = new LinkedHashMap<>();
+    indexed = supportsIndexedMode() && !"false".equals(String.valueOf(env.get("indexed")));
     if (defaultDir.charAt(0) != '/') {
       throw new IllegalArgumentException("default dir should be absolute");
     }
@@ -214,7 +230,11 @@ public abstract class AbstractTarFileSystem extends FileSystem {
         Files.createDirectories(tfpath.getParent());
         Files.createFile(tfpath);
       }
-      writeFile(getTarBytes(), tfpath);
+      if (indexed) {
+        writeIndexed();
+      } else {
+        writeFile(getTarBytes(), tfpath);
+      }
     } finally {
       endWrite();
     }
@@ -225,18 +245,35 @@ public abstract class AbstractTarFileSystem extends FileSystem {
                                    DirectoryStream.Filter<? super Path> filter)
     throws IOException {
     Collection<Path> subPaths = new ArrayList<>();
-    String pathString = new String(path);
-    for (TarEntry te : entriesToData.keySet()) {
-      String name = te.getName();
-      if (name.startsWith(pathString) && !name.equals(pathString)) {
-        subPaths.add(getPath(name));
+    beginRead();
+    try {
+      Set<String> children = childrenIndex.get(normalize(new String(path)));
+      if (children != null) {
+        for (String child : children) {
+          Path subPath = getPath(child);
+          if (filter == null || filter.accept(subPath)) {
+            subPaths.add(subPath);
+          }
+        }
       }
+    } finally {
+      endRead();
     }
     return subPaths.iterator();
   }
 
   public boolean isDirectory(byte[] path) {
     TarEntry te = getTarEntryFromPath(path);
+    if (te == null) {
+      // directory without own tar entry
+      beginRead();
+      try {
+        String name = normalize(new String(path));
+        return name.isEmpty() || childrenIndex.containsKey(name);
+      } finally {
+        endRead();
+      }
+    }
     return te.isDirectory();
   }
 
@@ -247,15 +284,18 @@ public abstract class AbstractTarFileSystem extends FileSystem {
     addEntry(te, new byte[0]);
   }
 
-  public InputStream newInputStream(byte[] resolvedPath) {
-    byte[] data = null;
+  public InputStream newInputStream(byte[] resolvedPath) throws IOException {
+    ByteBuffer data;
     beginRead();
     try {
-      data = getDataBytes(resolvedPath);
+      data = getData(getTarEntryFromPath(resolvedPath));
     } finally {
       endRead();
     }
-    return new ByteArrayInputStream(data);
+    if (data.hasArray()) {
+      return new ByteArrayInputStream(data.array(), data.arrayOffset() + data.position(), data.remaining());
+    }
+    return new ByteBufferInputStream(data);
   }
 
   public void deleteFile(byte[] resolvedPath, boolean failIfNotExists)
@@ -264,25 +304,56 @@ public abstract class AbstractTarFileSystem extends FileSystem {
     if (failIfNotExists && te == null) {
       throw new NoSuchFileException(new String(resolvedPath));
     }
-    entriesToData.remove(te);
+    beginWrite();
+    try {
+      if (te != null && te.dataOffset >= 0) {
+        rewriteRequired = true;
+      }
+      removeEntry(te);
+    } finally {
+      endWrite();
+    }
   }
 
   public TarFileAttributes getFileAttributes(byte[] resolvedPath) {
-    return new TarFileAttributes(getTarEntryFromPath(resolvedPath));
+    TarEntry te = getTarEntryFromPath(resolvedPath);
+    if (te == null && isDirectory(resolvedPath)) {
+      // directory without own tar entry
+      te = new TarEntry(TarHeader.createHeader(new String(resolvedPath), 0, 0, true));
+    }
+    return new TarFileAttributes(te);
   }
 
   public void setTimes(byte[] resolvedPath, FileTime mtime, FileTime atime,
                        FileTime ctime) {
     TarEntry te = getTarEntryFromPath(resolvedPath);
     te.setModTime(mtime.toMillis());
+    if (te.dataOffset >= 0) {
+      rewriteRequired = true;
+    }
   }
 
   public SeekableByteChannel newByteChannel(byte[] resolvedPath,
-                                            Set<? extends OpenOption> options, FileAttribute<?>[] attrs) {
+                                            Set<? extends OpenOption> options, FileAttribute<?>[] attrs) throws IOException {
     boolean write = options.contains(StandardOpenOption.WRITE)
                     || options.contains(StandardOpenOption.APPEND);
-    return new TarSeekableByteChannel(getTarEntryFromPath(resolvedPath),
-      write);
+    TarEntry te = getTarEntryFromPath(resolvedPath);
+    if (te != null && te.dataOffset >= 0) {
+      if (!write) {
+        return new TarMappedByteChannel(mapData(te));
+      }
+      // entry going to be changed, move it into memory
+      beginWrite();
+      try {
+        te.file = readData(te);
+        te.dataOffset = -1;
+        entriesToData.put(te, te.file);
+        rewriteRequired = true;
+      } finally {
+        endWrite();
+      }
+    }
+    return new TarSeekableByteChannel(te, write);
   }
 
   public FileChannel newFileChannel(byte[] resolvedPath,
@@ -291,7 +362,7 @@ public abstract class AbstractTarFileSystem extends FileSystem {
   }
 
   public boolean exists(byte[] resolvedPath) {
-    return getTarEntryFromPath(resolvedPath) != null;
+    return getTarEntryFromPath(resolvedPath) != null || isDirectory(resolvedPath);
   }
 
   public OutputStream newOutputStream(final byte[] resolvedPath,
@@ -300,7 +371,7 @@ public abstract class AbstractTarFileSystem extends FileSystem {
     List<OpenOption> opts = Arrays.asList(options);
     if (exists(resolvedPath)) {
       if (opts.contains(StandardOpenOption.APPEND)) {
-        byte[] data = getDataBytes(resolvedPath);
+        byte[] data = readData(getTarEntryFromPath(resolvedPath));
         for (byte element : data) {
           bytesWritten.add(element);
         }
@@ -355,7 +426,7 @@ public abstract class AbstractTarFileSystem extends FileSystem {
     beginWrite();
     try {
       TarEntry srcEntry = getTarEntryFromPath(srcPath);
-      byte[] data = entriesToData.get(srcEntry);
+      byte[] data = readData(srcEntry);
       if (exists(targetPath)) {
         deleteFile(targetPath, true);
       }
@@ -382,6 +453,14 @@ public abstract class AbstractTarFileSystem extends FileSystem {
 
   protected abstract byte[] readFile(Path path) throws IOException;
 
+  /**
+   * @return true if archive stored as plain tar and may be memory-mapped instead of loaded into memory. Indexed mode may
+   * be disabled by 'indexed=false' env property
+   */
+  protected boolean supportsIndexedMode() {
+    return false;
+  }
+
   protected abstract void writeFile(byte[] tarBytes, Path outPath)
     throws IOException;
 
@@ -391,9 +470,14 @@ public abstract class AbstractTarFileSystem extends FileSystem {
   }
 
   private void mapEntries() throws IOException {
-    beginRead();
+    if (indexed) {
+      indexEntries();
+      return;
+    }
+    // entries are modified, read lock would let readers see half filled index
+    beginWrite();
     try {
-      entriesToData.clear();
+      clearEntries();
       byte[] tfByteArray;
       if (Files.notExists(tfpath)) {
         tfByteArray = new byte[TarConstants.DATA_BLOCK];
@@ -414,7 +498,7 @@ public abstract class AbstractTarFileSystem extends FileSystem {
                                                         * TarConstants.DATA_BLOCK, (int) ((i + 1)
                                                                                           * TarConstants.DATA_BLOCK + te.getSize()));
           te.file = data;
-          entriesToData.put(te, data);
+          putEntry(te, data);
           int blocksNeeded = (int) Math.ceil((double) te.getSize()
                                              / TarConstants.DATA_BLOCK);
           for (int j = 0; j < blocksNeeded; j++) {
@@ -423,7 +507,113 @@ public abstract class AbstractTarFileSystem extends FileSystem {
         }
       }
     } finally {
-      endRead();
+      endWrite();
+    }
+  }
+
+  // read only headers, entry data stays in file and mapped on demand
+  private void indexEntries() throws IOException {
+    beginWrite();
+    try {
+      clearEntries();
+      appendOffset = 0;
+      if (Files.notExists(tfpath)) {
+        return;
+      }
+      tarChannel = FileChannel.open(tfpath, StandardOpenOption.READ);
+      long size = tarChannel.size();
+      ByteBuffer block = ByteBuffer.allocate(TarConstants.HEADER_BLOCK);
+      long position = 0;
+      while (position + TarConstants.HEADER_BLOCK <= size) {
+        block.clear();
+        while (block.hasRemaining() && tarChannel.read(block, position + block.position()) > 0) {
+        }
+        byte[] header = block.array();
+        if (!isUstarHeader(header)) {
+          // end-of-archive block
+          break;
+        }
+        TarEntry te = new TarEntry(header);
+        te.dataOffset = position + TarConstants.HEADER_BLOCK;
+        putEntry(te, null);
+        position = te.dataOffset + blocks(te.getSize()) * TarConstants.DATA_BLOCK;
+      }
+      appendOffset = Math.min(position, size);
+    } finally {
+      endWrite();
+    }
+  }
+
+  private void writeIndexed() throws IOException {
+    try {
+      if (rewriteRequired) {
+        rewriteIndexed();
+      } else {
+        appendIndexed();
+      }
+    } finally {
+      closeTarChannel();
+    }
+  }
+
+  // only new entries: write them over end-of-archive blocks
+  private void appendIndexed() throws IOException {
+    if (tarChannel != null && entriesToData.values().stream().allMatch(Objects::isNull)) {
+      return;
+    }
+    try (FileChannel out = FileChannel.open(tfpath, StandardOpenOption.WRITE)) {
+      out.position(appendOffset);
+      for (Entry<TarEntry, byte[]> entry : entriesToData.entrySet()) {
+        if (entry.getKey().dataOffset < 0) {
+          writeEntry(out, entry.getKey(), entry.getValue());
+        }
+      }
+      writeFully(out, ByteBuffer.allocate(TarConstants.EOF_BLOCK));
+      out.truncate(out.position());
+    }
+  }
+
+  // removed/changed entries: stream archive into temp file, unchanged entries copied directly from source file
+  private void rewriteIndexed() throws IOException {
+    Path tmp = Files.createTempFile(tfpath.toAbsolutePath().getParent(), tfpath.getFileName().toString(), ".tmp");
+    try {
+      try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+        for (Entry<TarEntry, byte[]> entry : entriesToData.entrySet()) {
+          writeEntry(out, entry.getKey(), entry.getValue());
+        }
+        writeFully(out, ByteBuffer.allocate(TarConstants.EOF_BLOCK));
+      }
+      closeTarChannel();
+      Files.move(tmp, tfpath, StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      Files.deleteIfExists(tmp);
+    }
+  }
+
+  private void writeEntry(FileChannel out, TarEntry te, byte[] data) throws IOException {
+    long size = data == null ? te.getSize() : data.length;
+    te.setSize(size);
+    byte[] header = new byte[TarConstants.HEADER_BLOCK];
+    te.writeEntryHeader(header);
+    writeFully(out, ByteBuffer.wrap(header));
+    if (data == null) {
+      long copied = 0;
+      while (copied < size) {
+        copied += tarChannel.transferTo(te.dataOffset + copied, size - copied, out);
+      }
+    } else {
+      writeFully(out, ByteBuffer.wrap(data));
+    }
+    int padding = (int) (blocks(size) * TarConstants.DATA_BLOCK - size);
+    if (padding > 0) {
+      writeFully(out, ByteBuffer.allocate(padding));
+    }
+  }
+
+  private void closeTarChannel() throws IOException {
+    if (tarChannel != null) {
+      tarChannel.close();
+      tarChannel = null;
     }
   }
 
@@ -468,36 +658,164 @@ public abstract class AbstractTarFileSystem extends FileSystem {
   }
 
   private TarEntry getTarEntryFromPath(byte[] path) {
-    TarEntry te = null;
-    String name = new String(path);
     beginRead();
     try {
-      for (TarEntry e : entriesToData.keySet()) {
-        if (e.getName().equals(name) || e.getName().equals(name + "/")) {
-          te = e;
-          break;
-        }
-      }
-    } catch (NullPointerException e) {
-      e.printStackTrace();
+      return nameIndex.get(normalize(new String(path)));
     } finally {
       endRead();
     }
-    return te;
   }
 
   private void addEntry(TarEntry te, byte[] data) {
     beginWrite();
     try {
-      entriesToData.put(te, data);
+      putEntry(te, data);
     } finally {
       endWrite();
     }
   }
 
-  private byte[] getDataBytes(byte[] path) {
-    TarEntry te = getTarEntryFromPath(path);
-    return entriesToData.get(te);
+  // must be called under write lock
+  private void putEntry(TarEntry te, byte[] data) {
+    String name = normalize(te.getName());
+    TarEntry previous = nameIndex.put(name, te);
+    if (previous != null && previous != te) {
+      // same name appears twice in tar - latest entry wins
+      entriesToData.remove(previous);
+    }
+    entriesToData.put(te, data);
+    // register entry and all implicit parent directories
+    while (!name.isEmpty()) {
+      int index = name.lastIndexOf('/');
+      String parent = index < 0 ? "" : name.substring(0, index);
+      if (!childrenIndex.computeIfAbsent(parent, k -> new LinkedHashSet<>()).add(name)) {
+        break;
+      }
+      name = parent;
+    }
+  }
+
+  // must be called under write lock
+  private void removeEntry(TarEntry te) {
+    if (te == null) {
+      return;
+    }
+    entriesToData.remove(te);
+    String name = normalize(te.getName());
+    if (nameIndex.get(name) != te) {
+      return;
+    }
+    nameIndex.remove(name);
+    // drop name from parent listing unless it still has children. implicit parents left empty are dropped as well
+    while (!name.isEmpty() && !nameIndex.containsKey(name)) {
+      Set<String> children = childrenIndex.get(name);
+      if (children != null && !children.isEmpty()) {
+        break;
+      }
+      childrenIndex.remove(name);
+      int index = name.lastIndexOf('/');
+      String parent = index < 0 ? "" : name.substring(0, index);
+      Set<String> siblings = childrenIndex.get(parent);
+      if (siblings != null) {
+        siblings.remove(name);
+      }
+      name = parent;
+    }
+  }
+
+  private void clearEntries() {
+    entriesToData.clear();
+    nameIndex.clear();
+    childrenIndex.clear();
+  }
+
+  private static String normalize(String name) {
+    int start = 0;
+    int end = name.length();
+    while (start < end && name.charAt(start) == '/') {
+      start++;
+    }
+    while (end > start && name.charAt(end - 1) == '/') {
+      end--;
+    }
+    return name.substring(start, end);
+  }
+
+  private ByteBuffer getData(TarEntry te) throws IOException {
+    if (te == null) {
+      throw new NoSuchFileException("Tar entry not found");
+    }
+    if (te.dataOffset >= 0) {
+      return mapData(te);
+    }
+    byte[] data = entriesToData.get(te);
+    return ByteBuffer.wrap(data == null ? new byte[0] : data);
+  }
+
+  private ByteBuffer mapData(TarEntry te) throws IOException {
+    return tarChannel.map(FileChannel.MapMode.READ_ONLY, te.dataOffset, te.getSize());
+  }
+
+  private byte[] readData(TarEntry te) throws IOException {
+    ByteBuffer data = getData(te);
+    if (data.hasArray() && data.arrayOffset() == 0 && data.remaining() == data.array().length) {
+      return data.array();
+    }
+    byte[] bytes = new byte[data.remaining()];
+    data.get(bytes);
+    return bytes;
+  }
+
+  private static long blocks(long size) {
+    return (size + TarConstants.DATA_BLOCK - 1) / TarConstants.DATA_BLOCK;
+  }
+
+  private static boolean isUstarHeader(byte[] block) {
+    return block[TarConstants.MAGICOFF] == 'u' && block[TarConstants.MAGICOFF + 1] == 's'
+           && block[TarConstants.MAGICOFF + 2] == 't' && block[TarConstants.MAGICOFF + 3] == 'a'
+           && block[TarConstants.MAGICOFF + 4] == 'r';
+  }
+
+  private static void writeFully(FileChannel out, ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      out.write(buffer);
+    }
+  }
+
+  private static class ByteBufferInputStream extends InputStream {
+
+    private final ByteBuffer buffer;
+
+    private ByteBufferInputStream(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public int read() {
+      return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+      if (!buffer.hasRemaining()) {
+        return len == 0 ? 0 : -1;
+      }
+      int n = Math.min(len, buffer.remaining());
+      buffer.get(b, off, n);
+      return n;
+    }
+
+    @Override
+    public long skip(long n) {
+      int skip = (int) Math.max(0, Math.min(n, buffer.remaining()));
+      buffer.position(buffer.position() + skip);
+      return skip;
+    }
+
+    @Override
+    public int available() {
+      return buffer.remaining();
+    }
   }
 
 }
@@ -11,6 +11,8 @@ public class TarEntry {
   @Getter
   protected TarHeader header;
   protected boolean isDirectory;
+  // offset of entry data in plain tar file if entry not loaded into memory, -1 otherwise
+  long dataOffset = -1;
 
   private TarEntry() {
     file = null;
@@ -13,6 +13,11 @@ class TarFileSystem extends AbstractTarFileSystem {
     super(provider, tfpath, env);
   }
 
+  @Override
+  protected boolean supportsIndexedMode() {
+    return true;
+  }
+
   @Override
   protected byte[] readFile(Path path) throws IOException {
     return Files.readAllBytes(path);
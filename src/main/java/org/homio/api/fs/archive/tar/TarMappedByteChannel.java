@@ -0,0 +1,79 @@
+package org.homio.api.fs.archive.tar;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * Read-only channel over memory-mapped tar entry data
+ */
+class TarMappedByteChannel implements SeekableByteChannel {
+
+  private final ByteBuffer data;
+  private boolean open = true;
+
+  TarMappedByteChannel(ByteBuffer data) {
+    this.data = data;
+  }
+
+  @Override
+  public boolean isOpen() {
+    return open;
+  }
+
+  @Override
+  public void close() {
+    open = false;
+  }
+
+  @Override
+  public int read(ByteBuffer dst) throws IOException {
+    ensureOpen();
+    if (!data.hasRemaining()) {
+      return -1;
+    }
+    int toRead = Math.min(dst.remaining(), data.remaining());
+    ByteBuffer chunk = data.slice();
+    chunk.limit(toRead);
+    dst.put(chunk);
+    data.position(data.position() + toRead);
+    return toRead;
+  }
+
+  @Override
+  public int write(ByteBuffer src) {
+    throw new NonWritableChannelException();
+  }
+
+  @Override
+  public long position() throws IOException {
+    ensureOpen();
+    return data.position();
+  }
+
+  @Override
+  public SeekableByteChannel position(long newPosition) throws IOException {
+    ensureOpen();
+    data.position((int) Math.min(newPosition, data.limit()));
+    return this;
+  }
+
+  @Override
+  public long size() throws IOException {
+    ensureOpen();
+    return data.limit();
+  }
+
+  @Override
+  public SeekableByteChannel truncate(long size) {
+    throw new NonWritableChannelException();
+  }
+
+  private void ensureOpen() throws IOException {
+    if (!open) {
+      throw new ClosedChannelException();
+    }
+  }
+}
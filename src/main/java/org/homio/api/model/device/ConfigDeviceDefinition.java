@@ -1,6 +1,7 @@
 package org.homio.api.model.device;
 
 import com.fasterxml.jackson.databind.JsonNode;
+import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.Setter;
 import org.homio.api.widget.template.WidgetDefinition;
@@ -11,6 +12,7 @@ import java.util.Set;
 
 @Getter
 @Setter
+@EqualsAndHashCode
 public class ConfigDeviceDefinition {
 
   // for description inside json file only
@@ -1,14 +1,16 @@
 package org.homio.api.model.device;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
-import lombok.AllArgsConstructor;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.SneakyThrows;
 import lombok.extern.log4j.Log4j2;
 import lombok.val;
 import org.apache.commons.io.file.PathUtils;
+import org.homio.api.cache.ConcurrentCachedValue;
 import org.homio.api.exception.ServerException;
 import org.homio.api.util.CommonUtils;
 import org.homio.api.widget.template.WidgetDefinition;
@@ -16,18 +18,29 @@ import org.homio.hquery.Curl;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
 import java.net.URI;
 import java.net.URL;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -39,11 +52,17 @@ import static org.homio.api.util.JsonUtils.OBJECT_MAPPER;
 @Log4j2
 public class ConfigDeviceDefinitionService {
 
+  private static final int HEAD_TIMEOUT = 30_000;
+
   private final String fileName;
   private final Path localFilePath;
-  private final @NotNull Map<String, ModelDevices> modelIdToDevices = new HashMap<>();
-  private final @NotNull ReentrantLock midLock = new ReentrantLock();
   private long localConfigFileHashCode;
+  // sha-256 of local config file content
+  private @Nullable String localConfigContentHash;
+  // ETag of server file that matches local file. null if unknown
+  private @Nullable String serverETag;
+  private @Nullable String pendingServerETag;
+  private final @NotNull List<Consumer<ConfigChanges>> changeListeners = new CopyOnWriteArrayList<>();
   @Setter
   private String serverFilePath;
   @Getter
@@ -64,6 +83,8 @@ public class ConfigDeviceDefinitionService {
   private @NotNull Map<String, ConfigDeviceEndpoint> deviceAliasEndpoints = Collections.emptyMap();
   private @NotNull Set<String> ignoreEndpoints = Collections.emptySet();
   private @NotNull Set<String> hiddenEndpoints = Collections.emptySet();
+  // rebuilt together with endpointDeviceDefinitions
+  private volatile @NotNull EndpointMatcher endpointMatcher = new EndpointMatcher(Collections.emptyMap());
 
   /**
    * Create config service instance
@@ -86,6 +107,7 @@ public class ConfigDeviceDefinitionService {
       PathUtils.copy(localZdFile::openStream, configFileLocation, StandardCopyOption.REPLACE_EXISTING);
     }
     localConfigFileHashCode = Files.size(configFileLocation);
+    localConfigContentHash = contentHash(configFileLocation);
     readDeviceDefinitions();
   }
 
@@ -116,28 +138,36 @@ public class ConfigDeviceDefinitionService {
   public @NotNull List<ConfigDeviceDefinition> findDeviceDefinitionModels(
     @Nullable String model,
     @NotNull Set<String> endpoints) {
-    int endpointHash = endpoints.hashCode();
-    ModelDevices modelDevices = modelIdToDevices.get(model);
-    if (modelDevices == null || modelDevices.hashCode != endpointHash) {
-      try {
-        midLock.lock();
-        modelDevices = modelIdToDevices.get(model);
-        if (modelDevices == null || modelDevices.hashCode != endpointHash) {
-          modelDevices = new ModelDevices(endpointHash, findDeviceDefinitionModelsInternal(model, endpoints));
-          modelIdToDevices.put(model, modelDevices);
-        }
-      } finally {
-        midLock.unlock();
-      }
-    }
-    return modelDevices.devices;
+    return endpointMatcher.find(model, endpoints);
+  }
+
+  /**
+   * Listener fires after config file reloaded with set of changed definitions. Devices not affected by changes (see
+   * ConfigChanges.isAffected(...)) don't need to be re-initialized
+   */
+  public void addChangeListener(@NotNull Consumer<ConfigChanges> listener) {
+    changeListeners.add(listener);
   }
 
   @SneakyThrows
   public void checkServerConfiguration() {
     if (equalServerConfig) {
-      long serverConfigHash = Curl.getFileSize(new URI(serverFilePath).toURL());
-      if (serverConfigHash != localConfigFileHashCode) {
+      ServerFile serverFile = fetchServerFile();
+      if (serverFile == null) {
+        return;
+      }
+      String etag = serverFile.etag();
+      if (etag != null && serverETag != null) {
+        if (!etag.equals(serverETag)) {
+          pendingServerETag = etag;
+          equalServerConfig = false;
+        }
+        return;
+      }
+      // server ETag not known yet or not sent. fallback to file size
+      // same size doesn't mean same content. let syncConfigurationFile() compare content hash and remember ETag
+      if (serverFile.size() != localConfigFileHashCode || etag != null) {
+        pendingServerETag = etag;
         equalServerConfig = false;
       }
     }
@@ -145,16 +175,37 @@ public class ConfigDeviceDefinitionService {
 
   public void syncConfigurationFile() {
     if (!equalServerConfig) {
+      Path downloadPath = localFilePath.resolveSibling(localFilePath.getFileName() + ".download");
       try {
         log.info("Downloading new {} device configuration file", fileName);
-        Curl.download(serverFilePath, localFilePath);
-        // currently we use only hash to distinguish if file os newer
-        localConfigFileHashCode = Files.size(localFilePath);
+        Curl.download(serverFilePath, downloadPath);
+        String contentHash = contentHash(downloadPath);
+        serverETag = pendingServerETag;
         equalServerConfig = true;
-        readDeviceDefinitions();
-        log.info("New {} device configuration file downloaded", fileName);
+        if (contentHash.equals(localConfigContentHash)) {
+          log.info("Downloaded {} device configuration file has same content", fileName);
+          Files.delete(downloadPath);
+          return;
+        }
+        Files.move(downloadPath, localFilePath, StandardCopyOption.REPLACE_EXISTING);
+        localConfigFileHashCode = Files.size(localFilePath);
+        localConfigContentHash = contentHash;
+        ConfigChanges changes = readDeviceDefinitions();
+        log.info("New {} device configuration file downloaded. {}", fileName, changes);
+        for (Consumer<ConfigChanges> listener : changeListeners) {
+          try {
+            listener.accept(changes);
+          } catch (Exception ex) {
+            log.error("Error during handle {} device configuration changes", fileName, ex);
+          }
+        }
       } catch (Exception ex) {
         log.warn("Unable to reload {} device configuration file: {}", fileName, getErrorMessage(ex));
+        try {
+          Files.deleteIfExists(downloadPath);
+        } catch (IOException ioEx) {
+          log.warn("Unable to delete {}: {}", downloadPath, getErrorMessage(ioEx));
+        }
       }
     }
   }
@@ -173,12 +224,36 @@ public class ConfigDeviceDefinitionService {
       .flatMap(d -> d.getWidgets().stream()).toList();
   }
 
+  /**
+   * Parse config file by streaming parser: each device/endpoint is bound directly without building tree of whole file
+   *
+   * @return difference with previous definitions
+   */
   @SneakyThrows
-  private void readDeviceDefinitions() {
-    ConfigDeviceDefinitions deviceConfigurations = OBJECT_MAPPER.readValue(localFilePath.toFile(), ConfigDeviceDefinitions.class);
+  private @NotNull ConfigChanges readDeviceDefinitions() {
+    List<ConfigDeviceDefinition> devices = new ArrayList<>();
+    List<ConfigDeviceEndpoint> endpoints = new ArrayList<>();
+    Set<String> newIgnoreEndpoints = null;
+    Set<String> newHiddenEndpoints = null;
+    try (JsonParser parser = OBJECT_MAPPER.getFactory().createParser(localFilePath.toFile())) {
+      if (parser.nextToken() != JsonToken.START_OBJECT) {
+        throw new ServerException("Config file: " + fileName + " must be json object");
+      }
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String field = parser.getCurrentName();
+        JsonToken token = parser.nextToken();
+        switch (field) {
+          case "devices" -> readArray(parser, token, ConfigDeviceDefinition.class, devices);
+          case "endpoints" -> readArray(parser, token, ConfigDeviceEndpoint.class, endpoints);
+          case "ignoreEndpoints" -> newIgnoreEndpoints = readSet(parser, token);
+          case "hiddenEndpoints" -> newHiddenEndpoints = readSet(parser, token);
+          default -> parser.skipChildren();
+        }
+      }
+    }
 
     var definitions = new HashMap<String, ConfigDeviceDefinition>();
-    for (ConfigDeviceDefinition node : deviceConfigurations.getDevices()) {
+    for (ConfigDeviceDefinition node : devices) {
       addDeviceDefinition(definitions, node, node.getName());
       if (node.getModels() != null) {
         for (String model : node.getModels()) {
@@ -187,8 +262,8 @@ public class ConfigDeviceDefinitionService {
       }
     }
 
-    var endpointDefinitions = new HashMap<EndpointMatch, List<ConfigDeviceDefinition>>();
-    for (ConfigDeviceDefinition node : deviceConfigurations.getDevices()) {
+    var endpointDefinitions = new LinkedHashMap<EndpointMatch, List<ConfigDeviceDefinition>>();
+    for (ConfigDeviceDefinition node : devices) {
       if (node.getEndpoints() != null) {
         for (String endpoint : node.getEndpoints()) {
           val endpointMatch = new EndpointMatch(Stream.of(endpoint.split("~")).collect(Collectors.toSet()));
@@ -199,44 +274,116 @@ public class ConfigDeviceDefinitionService {
     }
 
     var aliasEndpoints = new HashMap<String, ConfigDeviceEndpoint>();
-    for (ConfigDeviceEndpoint deviceEndpoint : deviceConfigurations.getEndpoints()) {
+    for (ConfigDeviceEndpoint deviceEndpoint : endpoints) {
       if (deviceEndpoint.getAlias() != null) {
         for (String alias : deviceEndpoint.getAlias()) {
           aliasEndpoints.put(alias, deviceEndpoint);
         }
       }
     }
+    Map<String, ConfigDeviceEndpoint> newDeviceEndpoints = endpoints
+      .stream()
+      .collect(Collectors.toMap(ConfigDeviceEndpoint::getName, Function.identity()));
+
+    ConfigChanges changes = new ConfigChanges(
+      diff(deviceDefinitions, definitions),
+      diff(deviceEndpoints, newDeviceEndpoints),
+      diff(endpointDeviceDefinitions, endpointDefinitions).stream().map(EndpointMatch::andEndpoints).collect(Collectors.toSet()));
 
-    if (deviceConfigurations.getIgnoreEndpoints() != null) {
-      ignoreEndpoints = deviceConfigurations.getIgnoreEndpoints();
+    if (newIgnoreEndpoints != null) {
+      ignoreEndpoints = newIgnoreEndpoints;
     }
-    if (deviceConfigurations.getHiddenEndpoints() != null) {
-      hiddenEndpoints = deviceConfigurations.getHiddenEndpoints();
+    if (newHiddenEndpoints != null) {
+      hiddenEndpoints = newHiddenEndpoints;
     }
 
     endpointDeviceDefinitions = endpointDefinitions;
     deviceDefinitions = definitions;
-    deviceEndpoints = deviceConfigurations
-      .getEndpoints()
-      .stream()
-      .collect(Collectors.toMap(ConfigDeviceEndpoint::getName, Function.identity()));
+    endpointMatcher = new EndpointMatcher(endpointDefinitions);
+    deviceEndpoints = newDeviceEndpoints;
     deviceAliasEndpoints = aliasEndpoints;
+    return changes;
   }
 
-  private @NotNull List<ConfigDeviceDefinition> findDeviceDefinitionModelsInternal(
-    @Nullable String modelId,
-    @NotNull Set<String> endpoints) {
-    List<ConfigDeviceDefinition> devices = new ArrayList<>();
-    ConfigDeviceDefinition device = deviceDefinitions.get(modelId);
-    if (device != null) {
-      devices.add(device);
+  private static <T> void readArray(JsonParser parser, JsonToken token, Class<T> type, List<T> target) throws IOException {
+    if (token != JsonToken.START_ARRAY) {
+      parser.skipChildren();
+      return;
+    }
+    while (parser.nextToken() != JsonToken.END_ARRAY) {
+      target.add(OBJECT_MAPPER.readValue(parser, type));
+    }
+  }
+
+  private static @Nullable Set<String> readSet(JsonParser parser, JsonToken token) throws IOException {
+    if (token != JsonToken.START_ARRAY) {
+      parser.skipChildren();
+      return null;
+    }
+    Set<String> result = new HashSet<>();
+    while (parser.nextToken() != JsonToken.END_ARRAY) {
+      result.add(parser.getValueAsString());
+    }
+    return result;
+  }
+
+  /**
+   * @return keys that were added, removed or have different value
+   */
+  private static <K, V> @NotNull Set<K> diff(@NotNull Map<K, V> oldMap, @NotNull Map<K, V> newMap) {
+    Set<K> changed = new HashSet<>();
+    for (Map.Entry<K, V> entry : newMap.entrySet()) {
+      V oldValue = oldMap.get(entry.getKey());
+      if (oldValue == null || !oldValue.equals(entry.getValue())) {
+        changed.add(entry.getKey());
+      }
+    }
+    for (K key : oldMap.keySet()) {
+      if (!newMap.containsKey(key)) {
+        changed.add(key);
+      }
     }
-    for (Map.Entry<EndpointMatch, List<ConfigDeviceDefinition>> item : endpointDeviceDefinitions.entrySet()) {
-      if (endpoints.containsAll(item.getKey().andEndpoints)) {
-        devices.addAll(item.getValue());
+    return changed;
+  }
+
+  private static @NotNull String contentHash(@NotNull Path path) throws IOException {
+    try (InputStream stream = Files.newInputStream(path)) {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      byte[] buffer = new byte[8192];
+      int read;
+      while ((read = stream.read(buffer)) > 0) {
+        digest.update(buffer, 0, read);
       }
+      return HexFormat.of().formatHex(digest.digest());
+    } catch (NoSuchAlgorithmException ex) {
+      throw new IllegalStateException(ex);
     }
-    return devices;
+  }
+
+  // single HEAD request returns both ETag and size. hquery Curl doesn't expose response headers
+  private @Nullable ServerFile fetchServerFile() {
+    try {
+      HttpURLConnection connection = (HttpURLConnection) new URI(serverFilePath).toURL().openConnection();
+      try {
+        connection.setRequestMethod("HEAD");
+        connection.setConnectTimeout(HEAD_TIMEOUT);
+        connection.setReadTimeout(HEAD_TIMEOUT);
+        if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+          log.debug("Unable to fetch {} info. Status: {}", serverFilePath, connection.getResponseCode());
+          return null;
+        }
+        return new ServerFile(connection.getHeaderField("ETag"), connection.getContentLengthLong());
+      } finally {
+        connection.disconnect();
+      }
+    } catch (Exception ex) {
+      log.debug("Unable to fetch {} info: {}", serverFilePath, getErrorMessage(ex));
+      return null;
+    }
+  }
+
+  private record ServerFile(@Nullable String etag, long size) {
+
   }
 
   /**
@@ -259,10 +406,113 @@ public class ConfigDeviceDefinitionService {
     }
   }
 
-  @AllArgsConstructor
-  private static class ModelDevices {
+  /**
+   * Difference between two loaded config files
+   *
+   * @param models          - added/removed/changed device definitions. Keyed by model or definition name
+   * @param endpoints       - added/removed/changed endpoint configs
+   * @param endpointMatches - endpoint sets of added/removed/changed endpoint match rules
+   */
+  public record ConfigChanges(@NotNull Set<String> models, @NotNull Set<String> endpoints,
+                              @NotNull Set<Set<String>> endpointMatches) {
+
+    public boolean isEmpty() {
+      return models.isEmpty() && endpoints.isEmpty() && endpointMatches.isEmpty();
+    }
+
+    /**
+     * @return true if device with such model and endpoints has to be re-initialized
+     */
+    public boolean isAffected(@Nullable String model, @NotNull Set<String> deviceEndpoints) {
+      if (model != null && models.contains(model)) {
+        return true;
+      }
+      for (String endpoint : deviceEndpoints) {
+        if (endpoints.contains(endpoint)) {
+          return true;
+        }
+      }
+      for (Set<String> endpointMatch : endpointMatches) {
+        if (deviceEndpoints.containsAll(endpointMatch)) {
+          return true;
+        }
+      }
+      return false;
+    }
 
-    private final int hashCode;
-    private final @NotNull List<ConfigDeviceDefinition> devices;
+    @Override
+    public String toString() {
+      return "Changed definitions: %d, endpoints: %d, endpoint rules: %d".formatted(
+        models.size(), endpoints.size(), endpointMatches.size());
+    }
+  }
+
+  private record MatchKey(@Nullable String model, @NotNull Set<String> endpoints) {
+
+  }
+
+  /**
+   * Inverted index endpoint -> rules that contain it. Rule matches if all its endpoints are present, so subset query
+   * only touches rules that share at least one endpoint with query instead of all rules. Immutable, replaced on config
+   * reload together with own cache.
+   */
+  private class EndpointMatcher {
+
+    private static final int MAX_CACHED_QUERIES = 1000;
+
+    private final @NotNull List<ConfigDeviceDefinition>[] ruleDevices;
+    private final int @NotNull [] ruleSizes;
+    private final @NotNull Map<String, int[]> endpointToRules = new HashMap<>();
+    private final @NotNull ConcurrentCachedValue<List<ConfigDeviceDefinition>, MatchKey> cache;
+
+    @SuppressWarnings("unchecked")
+    private EndpointMatcher(@NotNull Map<EndpointMatch, List<ConfigDeviceDefinition>> endpointDefinitions) {
+      ruleDevices = new List[endpointDefinitions.size()];
+      ruleSizes = new int[endpointDefinitions.size()];
+      Map<String, List<Integer>> postings = new HashMap<>();
+      int rule = 0;
+      for (Map.Entry<EndpointMatch, List<ConfigDeviceDefinition>> item : endpointDefinitions.entrySet()) {
+        ruleDevices[rule] = item.getValue();
+        ruleSizes[rule] = item.getKey().andEndpoints.size();
+        for (String endpoint : item.getKey().andEndpoints) {
+          postings.computeIfAbsent(endpoint, k -> new ArrayList<>()).add(rule);
+        }
+        rule++;
+      }
+      for (Map.Entry<String, List<Integer>> posting : postings.entrySet()) {
+        endpointToRules.put(posting.getKey(), posting.getValue().stream().mapToInt(Integer::intValue).toArray());
+      }
+      cache = new ConcurrentCachedValue<List<ConfigDeviceDefinition>, MatchKey>(Duration.ofHours(1), this::match)
+        .setMaxSize(MAX_CACHED_QUERIES);
+    }
+
+    private @NotNull List<ConfigDeviceDefinition> find(@Nullable String model, @NotNull Set<String> endpoints) {
+      return cache.getValue(new MatchKey(model, Set.copyOf(endpoints)));
+    }
+
+    private @NotNull List<ConfigDeviceDefinition> match(@NotNull MatchKey key) {
+      List<ConfigDeviceDefinition> devices = new ArrayList<>();
+      ConfigDeviceDefinition device = deviceDefinitions.get(key.model);
+      if (device != null) {
+        devices.add(device);
+      }
+      // count matched endpoints per rule, rule matches when all its endpoints counted
+      int[] hits = new int[ruleSizes.length];
+      BitSet matched = new BitSet(ruleSizes.length);
+      for (String endpoint : key.endpoints) {
+        int[] rules = endpointToRules.get(endpoint);
+        if (rules != null) {
+          for (int rule : rules) {
+            if (++hits[rule] == ruleSizes[rule]) {
+              matched.set(rule);
+            }
+          }
+        }
+      }
+      for (int rule = matched.nextSetBit(0); rule >= 0; rule = matched.nextSetBit(rule + 1)) {
+        devices.addAll(ruleDevices[rule]);
+      }
+      return Collections.unmodifiableList(devices);
+    }
   }
 }
@@ -1,6 +1,7 @@
 package org.homio.api.model.device;
 
 import com.fasterxml.jackson.annotation.JsonAnySetter;
+import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
@@ -11,10 +12,12 @@ import org.jetbrains.annotations.Nullable;
 import org.json.JSONObject;
 
 import java.util.List;
+import java.util.Map;
 
 @Getter
 @Setter
 @ToString
+@EqualsAndHashCode
 @Accessors(chain = true)
 @NoArgsConstructor
 public class ConfigDeviceEndpoint {
@@ -31,6 +34,8 @@ public class ConfigDeviceEndpoint {
   private Float min;
   private Float max;
   private List<String> alias;
+  // JSONObject has no equals(). compared by metadataMap()
+  @EqualsAndHashCode.Exclude
   private JSONObject metadata = new JSONObject();
   private DeviceEndpoint.EndpointType endpointType = DeviceEndpoint.EndpointType.string;
   private List<String> availableValues;
@@ -41,6 +46,11 @@ public class ConfigDeviceEndpoint {
     metadata.put(key, value);
   }
 
+  @EqualsAndHashCode.Include
+  private Map<String, Object> metadataMap() {
+    return metadata.toMap();
+  }
+
   public @Nullable String getIcon() {
     if (icon == null) {
       return null;
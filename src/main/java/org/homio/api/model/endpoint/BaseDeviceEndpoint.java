@@ -11,7 +11,6 @@ import org.apache.commons.lang3.StringUtils;
 import org.homio.api.Context;
 import org.homio.api.ContextVar.VariableMetaBuilder;
 import org.homio.api.ContextVar.VariableType;
-import org.homio.api.entity.BaseEntity;
 import org.homio.api.entity.device.DeviceEndpointsBehaviourContract;
 import org.homio.api.model.ActionResponseModel;
 import org.homio.api.model.Icon;
@@ -19,6 +18,7 @@ import org.homio.api.model.OptionModel;
 import org.homio.api.model.Status;
 import org.homio.api.model.device.ConfigDeviceDefinitionService;
 import org.homio.api.model.device.ConfigDeviceEndpoint;
+import org.homio.api.model.endpoint.EndpointUpdatePipeline.StageType;
 import org.homio.api.state.DecimalType;
 import org.homio.api.state.OnOffType;
 import org.homio.api.state.State;
@@ -64,9 +64,9 @@ public abstract class BaseDeviceEndpoint<D extends DeviceEndpointsBehaviourContr
   @Setter
   @Nullable String unit;
   private @Getter long updated = System.currentTimeMillis();
-  private @Getter
+  private volatile @Getter
   @NotNull State value = new StringType("N/A");
-  private @Nullable Object dbValue;
+  private volatile @Nullable Object dbValue;
   private @Nullable
   @Getter String variableID;
   private @Getter
@@ -106,6 +106,9 @@ public abstract class BaseDeviceEndpoint<D extends DeviceEndpointsBehaviourContr
   @Setter boolean stateless;
   private @Nullable ThrowingConsumer<State, Exception> updateHandler;
   private @Setter boolean dbValueStorable;
+  // propagate value changes asynchronously. null - propagate on caller thread
+  private @Setter
+  @Nullable EndpointUpdatePipeline updatePipeline;
   private Integer scale;
 
   public BaseDeviceEndpoint(@NotNull Icon icon, @NotNull String group, @NotNull Context context) {
@@ -252,8 +255,7 @@ public abstract class BaseDeviceEndpoint<D extends DeviceEndpointsBehaviourContr
     }
     setValue(targetState, true);
     if (dbValueStorable) {
-      getDevice().setJsonData(getEndpointEntityID(), targetValue);
-      context().db().save((BaseEntity) getDevice());
+      EndpointValuePersister.get(context).write(getDevice(), getEndpointEntityID(), targetValue);
     }
     if (updateHandler != null) {
       applyUpdateHandler(targetState);
@@ -332,18 +334,44 @@ public abstract class BaseDeviceEndpoint<D extends DeviceEndpointsBehaviourContr
 
     this.value = value;
     this.updated = System.currentTimeMillis();
-    for (Consumer<State> changeListener : changeListeners.values()) {
-      changeListener.accept(getValue());
+    EndpointUpdatePipeline pipeline = updatePipeline;
+    if (pipeline != null) {
+      State newValue = value;
+      String deviceID = getDeviceEntityID();
+      String endpointID = getEndpointEntityID();
+      // rejections are counted and logged by pipeline
+      if (!changeListeners.isEmpty()) {
+        pipeline.submit(StageType.Listeners, deviceID, endpointID, () -> notifyChangeListeners(newValue));
+      }
+      if (variableID != null) {
+        pipeline.submit(StageType.Variable, deviceID, endpointID, this::pushVariable);
+      }
+      pipeline.submit(StageType.Event, deviceID, endpointID, () -> fireEvent(newValue));
+      if (externalUpdate) {
+        pipeline.submit(StageType.UI, deviceID, endpointID, this::updateUI);
+      }
+      return;
     }
+    notifyChangeListeners(value);
     pushVariable();
+    fireEvent(value);
+    if (externalUpdate) {
+      updateUI();
+    }
+  }
+
+  private void notifyChangeListeners(@NotNull State value) {
+    for (Consumer<State> changeListener : changeListeners.values()) {
+      changeListener.accept(value);
+    }
+  }
+
+  private void fireEvent(@NotNull State value) {
     if (ignoreDuplicates) {
       context.event().fireEvent(getEntityID(), value);
     } else {
       context.event().fireEventIfNotSame(getEntityID(), value);
     }
-    if (externalUpdate) {
-      updateUI();
-    }
   }
 
   @Override
@@ -0,0 +1,281 @@
+package org.homio.api.model.endpoint;
+
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Moves endpoint value propagation off the thread that received value. Every stage (change listeners, variable, event,
+ * UI) has own thread pool which limits its concurrency, and bounded serial lane per device, so updates of single device
+ * are handled in order and slow stage or slow device never blocks radio/serial receive loop. Within lane pending update of
+ * endpoint is replaced by newer update of same endpoint, so latest value of every endpoint is propagated. This applies to
+ * Listeners stage as well: change listeners of busy device may not see intermediate values, only latest one. Update of
+ * already pending endpoint is never rejected; update of new endpoint is rejected if device lane is full. Event stage
+ * never coalesces: every event is queued, and new events are rejected if device lane is full. Rejections are counted and
+ * logged at most once per 'REJECT_LOG_INTERVAL' per stage.
+ */
+@Log4j2
+public class EndpointUpdatePipeline {
+
+  // drain at most this number of updates per lane before giving thread to another lane
+  private static final int LANE_BATCH = 64;
+  private static final long REJECT_LOG_INTERVAL = 10_000;
+
+  private final @NotNull Map<StageType, Stage> stages = new EnumMap<>(StageType.class);
+
+  /**
+   * @param listenerThreads - max concurrent change listener invocations
+   * @param variableThreads - max concurrent variable writes
+   * @param eventThreads    - max concurrent event fan-outs
+   * @param uiThreads       - max concurrent UI pushes
+   * @param laneCapacity    - max pending endpoints (or queued events) per device per stage
+   */
+  public EndpointUpdatePipeline(int listenerThreads, int variableThreads, int eventThreads, int uiThreads,
+                                int laneCapacity) {
+    stages.put(StageType.Listeners, new Stage(StageType.Listeners, listenerThreads, laneCapacity));
+    stages.put(StageType.Variable, new Stage(StageType.Variable, variableThreads, laneCapacity));
+    stages.put(StageType.Event, new Stage(StageType.Event, eventThreads, laneCapacity));
+    stages.put(StageType.UI, new Stage(StageType.UI, uiThreads, laneCapacity));
+  }
+
+  public EndpointUpdatePipeline() {
+    this(2, 1, 2, 1, 100);
+  }
+
+  /**
+   * Queue task of device endpoint into stage. Never blocks
+   *
+   * @return false if task rejected because device lane is full. Rejection is logged by pipeline
+   */
+  public boolean submit(@NotNull StageType stageType, @NotNull String deviceID, @NotNull String endpointID,
+                        @NotNull Runnable task) {
+    return stages.get(stageType).submit(deviceID, endpointID, task);
+  }
+
+  public @NotNull Stage getStage(@NotNull StageType stageType) {
+    return stages.get(stageType);
+  }
+
+  public void shutdown() {
+    for (Stage stage : stages.values()) {
+      stage.executor.shutdown();
+    }
+  }
+
+  public enum StageType {
+    Listeners, Variable, Event, UI
+  }
+
+  public static class Stage {
+
+    private final @Getter @NotNull StageType type;
+    private final @NotNull ExecutorService executor;
+    private final int laneCapacity;
+    private final @NotNull Map<String, Lane> lanes = new ConcurrentHashMap<>();
+    private final @NotNull AtomicLong processed = new AtomicLong();
+    // pending updates replaced by newer value of same endpoint
+    private final @NotNull AtomicLong coalesced = new AtomicLong();
+    private final @NotNull AtomicLong rejected = new AtomicLong();
+    // rejections not reported yet, to not flood log from receive thread on overload
+    private final @NotNull AtomicLong unreportedRejects = new AtomicLong();
+    private final @NotNull AtomicLong lastRejectLog = new AtomicLong();
+    private final @NotNull AtomicLong failed = new AtomicLong();
+    private final @NotNull AtomicLong totalLatencyNanos = new AtomicLong();
+    private volatile long lastLatencyNanos;
+    private volatile long maxLatencyNanos;
+
+    private Stage(@NotNull StageType type, int threads, int laneCapacity) {
+      this.type = type;
+      this.laneCapacity = Math.max(1, laneCapacity);
+      AtomicInteger counter = new AtomicInteger();
+      this.executor = Executors.newFixedThreadPool(Math.max(1, threads), runnable -> {
+        Thread thread = new Thread(runnable, "endpoint-" + type.name().toLowerCase() + "-" + counter.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+
+    public long getProcessed() {
+      return processed.get();
+    }
+
+    public long getCoalesced() {
+      return coalesced.get();
+    }
+
+    public long getRejected() {
+      return rejected.get();
+    }
+
+    public long getFailed() {
+      return failed.get();
+    }
+
+    public int getQueueDepth() {
+      int depth = 0;
+      for (Lane lane : lanes.values()) {
+        depth += lane.size();
+      }
+      return depth;
+    }
+
+    public int getQueueDepth(@NotNull String deviceID) {
+      Lane lane = lanes.get(deviceID);
+      return lane == null ? 0 : lane.size();
+    }
+
+    /**
+     * @return time from submit to task completion, including time in queue
+     */
+    public @NotNull Duration getLastLatency() {
+      return Duration.ofNanos(lastLatencyNanos);
+    }
+
+    public @NotNull Duration getMaxLatency() {
+      return Duration.ofNanos(maxLatencyNanos);
+    }
+
+    public @NotNull Duration getAverageLatency() {
+      long count = processed.get();
+      return Duration.ofNanos(count == 0 ? 0 : totalLatencyNanos.get() / count);
+    }
+
+    private boolean submit(@NotNull String deviceID, @NotNull String endpointID, @NotNull Runnable task) {
+      Lane lane = lanes.get(deviceID);
+      if (lane == null) {
+        lane = lanes.computeIfAbsent(deviceID, Lane::new);
+      }
+      if (!lane.offer(endpointID, task)) {
+        rejected.incrementAndGet();
+        reportRejected(deviceID, endpointID);
+        return false;
+      }
+      lane.schedule();
+      return true;
+    }
+
+    private void reportRejected(@NotNull String deviceID, @NotNull String endpointID) {
+      unreportedRejects.incrementAndGet();
+      long now = System.currentTimeMillis();
+      long lastLog = lastRejectLog.get();
+      if (now - lastLog >= REJECT_LOG_INTERVAL && lastRejectLog.compareAndSet(lastLog, now)) {
+        log.warn("[{}]: Endpoint {} stage queue of device is full. Rejected {} updates since last report. Last: {}",
+          deviceID, type, unreportedRejects.getAndSet(0), endpointID);
+      }
+    }
+
+    private void registerLatency(long nanos) {
+      processed.incrementAndGet();
+      totalLatencyNanos.addAndGet(nanos);
+      lastLatencyNanos = nanos;
+      if (nanos > maxLatencyNanos) {
+        maxLatencyNanos = nanos;
+      }
+    }
+
+    /**
+     * Serial queue of single device updates
+     */
+    private class Lane implements Runnable {
+
+      private final @NotNull String deviceID;
+      // endpointID -> latest pending task. Used by all stages except Event
+      private final @NotNull LinkedHashMap<String, QueuedTask> pending = new LinkedHashMap<>();
+      // Event stage keeps every task
+      private final @NotNull ArrayDeque<QueuedTask> queue = new ArrayDeque<>();
+      private final @NotNull AtomicBoolean scheduled = new AtomicBoolean(false);
+
+      private Lane(@NotNull String deviceID) {
+        this.deviceID = deviceID;
+      }
+
+      private synchronized boolean offer(@NotNull String endpointID, @NotNull Runnable task) {
+        long now = System.nanoTime();
+        if (type == StageType.Event) {
+          if (queue.size() >= laneCapacity) {
+            return false;
+          }
+          queue.add(new QueuedTask(task, now));
+          return true;
+        }
+        QueuedTask existed = pending.get(endpointID);
+        if (existed != null) {
+          // keep position and submit time of first pending update
+          pending.put(endpointID, new QueuedTask(task, existed.submitted));
+          coalesced.incrementAndGet();
+          return true;
+        }
+        if (pending.size() >= laneCapacity) {
+          return false;
+        }
+        pending.put(endpointID, new QueuedTask(task, now));
+        return true;
+      }
+
+      private synchronized @Nullable QueuedTask poll() {
+        if (type == StageType.Event) {
+          return queue.poll();
+        }
+        Iterator<QueuedTask> iterator = pending.values().iterator();
+        if (!iterator.hasNext()) {
+          return null;
+        }
+        QueuedTask task = iterator.next();
+        iterator.remove();
+        return task;
+      }
+
+      private synchronized int size() {
+        return type == StageType.Event ? queue.size() : pending.size();
+      }
+
+      private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+          executor.execute(this);
+        }
+      }
+
+      @Override
+      public void run() {
+        try {
+          for (int i = 0; i < LANE_BATCH; i++) {
+            QueuedTask task = poll();
+            if (task == null) {
+              break;
+            }
+            try {
+              task.task.run();
+            } catch (Exception ex) {
+              failed.incrementAndGet();
+              log.error("[{}]: Error during endpoint {} update stage", deviceID, type, ex);
+            }
+            registerLatency(System.nanoTime() - task.submitted);
+          }
+        } finally {
+          scheduled.set(false);
+          if (size() > 0) {
+            schedule();
+          }
+        }
+      }
+    }
+  }
+
+  private record QueuedTask(@NotNull Runnable task, long submitted) {
+
+  }
+}
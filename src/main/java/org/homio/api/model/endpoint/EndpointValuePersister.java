@@ -0,0 +1,207 @@
+package org.homio.api.model.endpoint;
+
+import lombok.extern.log4j.Log4j2;
+import org.homio.api.Context;
+import org.homio.api.entity.BaseEntity;
+import org.homio.api.entity.device.DeviceEndpointsBehaviourContract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.homio.api.util.CommonUtils.getErrorMessage;
+
+/**
+ * Coalesces endpoint values stored into device json data (BaseDeviceEndpoint with dbValueStorable). Device is marked as
+ * dirty on every write and saved once after 'quietPeriod' without new writes, but not later than 'maxLatency' after first
+ * unsaved write. Values of failed save are kept and saved again with growing delay, device is dropped after
+ * 'MAX_SAVE_ATTEMPTS' failed saves or if it was removed from db. Pending devices are saved on application exit.
+ */
+@Log4j2
+public class EndpointValuePersister {
+
+  private static final Map<Context, EndpointValuePersister> PERSISTERS = new ConcurrentHashMap<>();
+  private static final int MAX_SAVE_ATTEMPTS = 5;
+  private static final long MAX_RETRY_DELAY = 60_000;
+
+  private final @NotNull Context context;
+  // device entityID -> unsaved values
+  private final @NotNull Map<String, DirtyDevice> dirtyDevices = new ConcurrentHashMap<>();
+  private final @NotNull AtomicLong writes = new AtomicLong();
+  private final @NotNull AtomicLong saves = new AtomicLong();
+  private volatile long quietPeriod = 1000;
+  private volatile long maxLatency = 5000;
+
+  private EndpointValuePersister(@NotNull Context context) {
+    this.context = context;
+    context.bgp().builder("endpoint-value-persister")
+           .intervalWithDelay(Duration.ofMillis(200))
+           .hideOnUI(true)
+           .execute(() -> flush(false));
+    context.bgp().executeOnExit("endpoint-value-persister", () -> flush(true));
+  }
+
+  public static @NotNull EndpointValuePersister get(@NotNull Context context) {
+    return PERSISTERS.computeIfAbsent(context, EndpointValuePersister::new);
+  }
+
+  public @NotNull EndpointValuePersister setQuietPeriod(@NotNull Duration quietPeriod) {
+    this.quietPeriod = quietPeriod.toMillis();
+    return this;
+  }
+
+  public @NotNull EndpointValuePersister setMaxLatency(@NotNull Duration maxLatency) {
+    this.maxLatency = maxLatency.toMillis();
+    return this;
+  }
+
+  /**
+   * Set json value to device immediately and schedule device save
+   */
+  public void write(@NotNull DeviceEndpointsBehaviourContract device, @NotNull String key, @Nullable Object value) {
+    device.setJsonData(key, value);
+    writes.incrementAndGet();
+    while (true) {
+      DirtyDevice dirtyDevice = dirtyDevices.computeIfAbsent(device.getEntityID(), id -> new DirtyDevice());
+      synchronized (dirtyDevice) {
+        if (dirtyDevice.removed) {
+          // removed by flush right before we got lock
+          continue;
+        }
+        long now = System.currentTimeMillis();
+        if (dirtyDevice.values.isEmpty()) {
+          dirtyDevice.firstWrite = now;
+        }
+        dirtyDevice.device = device;
+        dirtyDevice.values.put(key, value);
+        dirtyDevice.lastWrite = now;
+        return;
+      }
+    }
+  }
+
+  /**
+   * @param all - save all dirty devices or only devices with expired quiet period or max latency
+   */
+  public void flush(boolean all) {
+    long now = System.currentTimeMillis();
+    for (Map.Entry<String, DirtyDevice> entry : dirtyDevices.entrySet()) {
+      DirtyDevice dirtyDevice = entry.getValue();
+      DeviceEndpointsBehaviourContract device;
+      Map<String, Object> values;
+      long firstWrite;
+      int attempts;
+      synchronized (dirtyDevice) {
+        if (dirtyDevice.values.isEmpty()) {
+          dirtyDevice.removed = true;
+          dirtyDevices.remove(entry.getKey(), dirtyDevice);
+          continue;
+        }
+        if (!all && (now < dirtyDevice.retryAt
+                     || (now - dirtyDevice.lastWrite < quietPeriod && now - dirtyDevice.firstWrite < maxLatency))) {
+          continue;
+        }
+        device = dirtyDevice.device;
+        values = new LinkedHashMap<>(dirtyDevice.values);
+        firstWrite = dirtyDevice.firstWrite;
+        attempts = dirtyDevice.attempts;
+        dirtyDevice.values.clear();
+      }
+      if (attempts > 0 && isRemoved(entry.getKey())) {
+        continue;
+      }
+      try {
+        // device instance may be replaced after value was set
+        for (Map.Entry<String, Object> value : values.entrySet()) {
+          device.setJsonData(value.getKey(), value.getValue());
+        }
+        context.db().save((BaseEntity) device);
+        saves.incrementAndGet();
+        synchronized (dirtyDevice) {
+          dirtyDevice.attempts = 0;
+        }
+      } catch (Exception ex) {
+        if (isRemoved(entry.getKey())) {
+          continue;
+        }
+        if (++attempts >= MAX_SAVE_ATTEMPTS) {
+          log.error("[{}]: Unable to save endpoint values of device after {} attempts. Drop values: {}",
+            entry.getKey(), attempts, values.keySet(), ex);
+          continue;
+        }
+        log.warn("[{}]: Unable to save endpoint values of device. Attempt: {}. {}", entry.getKey(), attempts,
+          getErrorMessage(ex));
+        restore(entry.getKey(), device, values, firstWrite, attempts,
+          now + Math.min(MAX_RETRY_DELAY, quietPeriod << attempts));
+      }
+    }
+  }
+
+  // put back values of failed save. Values written during save are newer and win
+  private void restore(@NotNull String entityID, @NotNull DeviceEndpointsBehaviourContract device,
+                       @NotNull Map<String, Object> values, long firstWrite, int attempts, long retryAt) {
+    while (true) {
+      // concurrent flush may remove emptied device while we were saving
+      DirtyDevice dirtyDevice = dirtyDevices.computeIfAbsent(entityID, id -> new DirtyDevice());
+      synchronized (dirtyDevice) {
+        if (dirtyDevice.removed) {
+          continue;
+        }
+        if (dirtyDevice.values.isEmpty()) {
+          dirtyDevice.device = device;
+          dirtyDevice.firstWrite = firstWrite;
+        } else {
+          // keep original first write time, so maxLatency triggers retry
+          dirtyDevice.firstWrite = Math.min(dirtyDevice.firstWrite, firstWrite);
+        }
+        for (Map.Entry<String, Object> value : values.entrySet()) {
+          dirtyDevice.values.putIfAbsent(value.getKey(), value.getValue());
+        }
+        dirtyDevice.attempts = attempts;
+        dirtyDevice.retryAt = retryAt;
+        return;
+      }
+    }
+  }
+
+  // device deleted while values were pending. Nothing to save
+  private boolean isRemoved(@NotNull String entityID) {
+    try {
+      if (context.db().get(entityID) == null) {
+        log.debug("[{}]: Device removed. Drop unsaved endpoint values", entityID);
+        return true;
+      }
+    } catch (Exception ignore) {
+      // unable to check - keep retrying
+    }
+    return false;
+  }
+
+  public int getDirtyDevices() {
+    return dirtyDevices.size();
+  }
+
+  public long getWrites() {
+    return writes.get();
+  }
+
+  public long getSaves() {
+    return saves.get();
+  }
+
+  private static class DirtyDevice {
+
+    private final @NotNull Map<String, Object> values = new LinkedHashMap<>();
+    private DeviceEndpointsBehaviourContract device;
+    private long firstWrite;
+    private long lastWrite;
+    // failed saves in a row and time of next save attempt
+    private int attempts;
+    private long retryAt;
+    private boolean removed;
+  }
+}
@@ -7,11 +7,23 @@ import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 import org.apache.logging.log4j.Logger;
 import org.homio.api.Context;
+import org.homio.api.ContextBGP.ThreadContext;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.springframework.boot.web.server.PortInUseException;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import java.util.stream.Stream;
 
@@ -21,6 +33,12 @@ import static org.homio.api.util.CommonUtils.getErrorMessage;
 @RequiredArgsConstructor
 public abstract class BaseSerialPort implements SerialPortDataListener {
 
+  private static final int WRITE_QUEUE_CAPACITY = 1024;
+  private static final int WRITE_BATCH_SIZE = 4096;
+  private static final Duration WRITER_STOP_TIMEOUT = Duration.ofSeconds(5);
+  // queued by stopWriter() to wake up writer after last frame
+  private static final WriteFrame STOP_FRAME = new WriteFrame(ByteBuffer.allocate(0), new CompletableFuture<>());
+
   protected final Object bufferSynchronisationObject = new Object();
 
   protected final String coordinator;
@@ -37,6 +55,14 @@ public abstract class BaseSerialPort implements SerialPortDataListener {
   protected InputStream inputStream;
   @Getter
   protected OutputStream outputStream;
+  // reusable read buffer for framed read mode. null - legacy mode with new byte[] per event
+  private @Nullable ByteBuffer readBuffer;
+  // frames queued by writeAsync(...), drained by single writer thread
+  private final BlockingQueue<WriteFrame> writeQueue = new ArrayBlockingQueue<>(WRITE_QUEUE_CAPACITY);
+  private final Object writerSynchronisationObject = new Object();
+  private @Nullable ThreadContext<Void> writerThread;
+  // writeAsync(...) rejects new frames while port is closing
+  private volatile boolean closing;
 
   public boolean open() {
     return open(baudRate, flowControl);
@@ -47,6 +73,7 @@ public abstract class BaseSerialPort implements SerialPortDataListener {
   }
 
   public boolean open(int baudRate, PortFlowControl flowControl) {
+    closing = false;
     try {
       log.debug("[{}]: Connecting to serial port [{}] at {} baud, flow control {}.", entityID,
         serialPort == null ? "null" : serialPort.getSystemPortName(), baudRate, flowControl);
@@ -100,11 +127,27 @@ public abstract class BaseSerialPort implements SerialPortDataListener {
     }
   }
 
+  /**
+   * Switch to framed read mode: data read into single reusable buffer and passed to handleSerialFrame(...) as read-only
+   * views without copying. Frame boundaries are defined by nextFrameLength(...)
+   *
+   * @param capacity - buffer size. Must be greater than max frame size
+   */
+  public void enableFramedRead(int capacity) {
+    synchronized (bufferSynchronisationObject) {
+      readBuffer = ByteBuffer.allocate(capacity);
+    }
+  }
+
   @Override
   public void serialEvent(SerialPortEvent event) {
     if (event.getEventType() == SerialPort.LISTENING_EVENT_DATA_AVAILABLE) {
       try {
         synchronized (bufferSynchronisationObject) {
+          if (readBuffer != null) {
+            readFrames(readBuffer);
+            return;
+          }
           int available = inputStream.available();
           log.trace("[{}]: Processing DATA_AVAILABLE event: have {} bytes available", entityID, available);
           byte[] buf = new byte[available];
@@ -137,9 +180,7 @@ public abstract class BaseSerialPort implements SerialPortDataListener {
         return;
       }
 
-      synchronized (this) {
-        this.notify();
-      }
+      notifyReceived();
     }
   }
 
@@ -148,9 +189,13 @@ public abstract class BaseSerialPort implements SerialPortDataListener {
     try {
       if (serialPort != null) {
         serialPortName = serialPort.getSystemPortName();
+        // write queued frames before streams are closed
+        stopWriter();
         serialPort.removeDataListener();
 
-        outputStream.flush();
+        synchronized (writerSynchronisationObject) {
+          outputStream.flush();
+        }
 
         inputStream.close();
         outputStream.close();
@@ -177,9 +222,45 @@ public abstract class BaseSerialPort implements SerialPortDataListener {
       return;
     }
     try {
-      outputStream.write(value);
-    } catch (IOException ignore) {
+      synchronized (writerSynchronisationObject) {
+        outputStream.write(value);
+      }
+    } catch (IOException ex) {
+      log.warn("[{}]: Unable to write to serial port: {}", entityID, getErrorMessage(ex));
+    }
+  }
+
+  /**
+   * Queue frame for writing without blocking caller. Frames are written in queue order by single writer thread, frames
+   * queued together are gathered into one port write.
+   *
+   * @param frame - data to write. Array must not be modified until returned future completes
+   * @return future completed after frame written. Completed exceptionally with RejectedExecutionException if write queue
+   * is full
+   */
+  public @NotNull CompletableFuture<Void> writeAsync(byte @NotNull [] frame) {
+    return writeAsync(ByteBuffer.wrap(frame));
+  }
+
+  public @NotNull CompletableFuture<Void> writeAsync(@NotNull ByteBuffer frame) {
+    WriteFrame writeFrame = new WriteFrame(frame.slice(), new CompletableFuture<>());
+    if (outputStream == null || closing) {
+      writeFrame.future.completeExceptionally(new IOException("Serial port is not opened"));
+      return writeFrame.future;
     }
+    if (!writeQueue.offer(writeFrame)) {
+      writeFrame.future.completeExceptionally(new RejectedExecutionException("Serial write queue is full"));
+      return writeFrame.future;
+    }
+    startWriterIfRequire();
+    return writeFrame.future;
+  }
+
+  /**
+   * @return number of frames that may be queued before writeAsync(...) rejects new frames
+   */
+  public int getWriteQueueRemainingCapacity() {
+    return writeQueue.remainingCapacity();
   }
 
   @Override
@@ -188,4 +269,224 @@ public abstract class BaseSerialPort implements SerialPortDataListener {
   }
 
   protected abstract void handleSerialEvent(byte[] buf);
+
+  /**
+   * Handle single frame in framed read mode. Frame is read-only view of shared read buffer and valid only during this call.
+   * Default implementation copies frame into byte[] and calls handleSerialEvent(...)
+   *
+   * @param frame - frame view
+   */
+  protected void handleSerialFrame(@NotNull ByteBuffer frame) {
+    byte[] buf = new byte[frame.remaining()];
+    frame.get(buf);
+    handleSerialEvent(buf);
+  }
+
+  /**
+   * Framing hook for framed read mode.
+   *
+   * @param data - read-only view of unconsumed data. Position and limit may be changed
+   * @return length of first complete frame, 0 if more data required. Negative value means first -n bytes are garbage and
+   * have to be skipped
+   */
+  protected int nextFrameLength(@NotNull ByteBuffer data) {
+    return data.remaining();
+  }
+
+  /**
+   * nextFrameLength(...) implementation for frames terminated by delimiter. Delimiter included into frame
+   */
+  protected static int delimitedFrameLength(@NotNull ByteBuffer data, byte delimiter) {
+    int start = data.position();
+    for (int i = start; i < data.limit(); i++) {
+      if (data.get(i) == delimiter) {
+        return i - start + 1;
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * nextFrameLength(...) implementation for frames with big-endian unsigned length field
+   *
+   * @param lengthOffset - offset of length field from frame start
+   * @param lengthSize   - size of length field in bytes, 1..4
+   * @param extraLength  - number of frame bytes not counted by length field, i.e. header and checksum
+   */
+  protected static int lengthPrefixedFrameLength(@NotNull ByteBuffer data, int lengthOffset, int lengthSize,
+                                                 int extraLength) {
+    if (data.remaining() < lengthOffset + lengthSize) {
+      return 0;
+    }
+    int length = 0;
+    for (int i = 0; i < lengthSize; i++) {
+      length = (length << 8) | (data.get(data.position() + lengthOffset + i) & 0xFF);
+    }
+    int frameLength = length + extraLength;
+    return data.remaining() < frameLength ? 0 : frameLength;
+  }
+
+  private void readFrames(@NotNull ByteBuffer buffer) throws IOException {
+    int available = inputStream.available();
+    log.trace("[{}]: Processing DATA_AVAILABLE event: have {} bytes available", entityID, available);
+    while (available > 0) {
+      if (!buffer.hasRemaining()) {
+        log.warn("[{}]: Serial read buffer overflow. Drop {} buffered bytes", entityID, buffer.position());
+        buffer.clear();
+      }
+      int n = inputStream.read(buffer.array(), buffer.arrayOffset() + buffer.position(),
+        Math.min(available, buffer.remaining()));
+      if (n <= 0) {
+        throw new IOException("Expected to be able to read " + available + " bytes, but saw error");
+      }
+      buffer.position(buffer.position() + n);
+      available -= n;
+      dispatchFrames(buffer);
+    }
+    notifyReceived();
+  }
+
+  // buffer is in write mode: [0..position) contains unconsumed data
+  private void dispatchFrames(@NotNull ByteBuffer buffer) {
+    int start = 0;
+    int end = buffer.position();
+    ByteBuffer view = buffer.asReadOnlyBuffer();
+    while (start < end) {
+      view.limit(end).position(start);
+      int length = nextFrameLength(view);
+      if (length == 0) {
+        break;
+      }
+      if (length > 0) {
+        view.limit(start + Math.min(length, end - start)).position(start);
+        try {
+          handleSerialFrame(view.slice());
+        } catch (Exception ex) {
+          log.warn("[{}]: Error during handle serial frame: {}", entityID, getErrorMessage(ex));
+        }
+      }
+      start += Math.min(Math.abs(length), end - start);
+    }
+    // move incomplete frame to buffer start
+    buffer.flip().position(start);
+    buffer.compact();
+  }
+
+  private void startWriterIfRequire() {
+    synchronized (writeQueue) {
+      if (writerThread == null || writerThread.isStopped()) {
+        writerThread = context.bgp().<Void>builder("serial-writer-" + entityID)
+                              .hideOnUI(true)
+                              .execute(this::drainWriteQueue);
+      }
+    }
+  }
+
+  // stop accepting frames, wait until writer writes queued frames and exits
+  private void stopWriter() {
+    closing = true;
+    ThreadContext<Void> writer;
+    synchronized (writeQueue) {
+      writer = writerThread;
+      writerThread = null;
+    }
+    if (writer != null && !writer.isStopped()) {
+      // if queue is full writer exits on first empty poll
+      writeQueue.offer(STOP_FRAME);
+      try {
+        writer.await(WRITER_STOP_TIMEOUT);
+      } catch (Exception ex) {
+        log.warn("[{}]: Serial writer not finished in {}: {}", entityID, WRITER_STOP_TIMEOUT, getErrorMessage(ex));
+      } finally {
+        writer.cancel();
+      }
+    }
+    IOException closed = new IOException("Serial port closed");
+    WriteFrame frame;
+    while ((frame = writeQueue.poll()) != null) {
+      if (frame != STOP_FRAME) {
+        frame.future.completeExceptionally(closed);
+      }
+    }
+  }
+
+  private Void drainWriteQueue(@NotNull ThreadContext<Void> threadContext) throws InterruptedException {
+    byte[] batch = new byte[WRITE_BATCH_SIZE];
+    List<WriteFrame> frames = new ArrayList<>();
+    while (!threadContext.isStopped()) {
+      WriteFrame first = writeQueue.poll(1, TimeUnit.SECONDS);
+      if (first == null) {
+        if (closing) {
+          break;
+        }
+        continue;
+      }
+      frames.add(first);
+      writeQueue.drainTo(frames);
+      boolean stop = frames.removeIf(frame -> frame == STOP_FRAME);
+      try {
+        writeFrames(frames, batch);
+        for (WriteFrame frame : frames) {
+          frame.future.complete(null);
+        }
+      } catch (Exception ex) {
+        log.warn("[{}]: Unable to write to serial port: {}", entityID, getErrorMessage(ex));
+        for (WriteFrame frame : frames) {
+          frame.future.completeExceptionally(ex);
+        }
+      }
+      frames.clear();
+      if (stop) {
+        break;
+      }
+    }
+    return null;
+  }
+
+  // copy small frames into one batch to issue single port write instead of write per frame
+  private void writeFrames(@NotNull List<WriteFrame> frames, byte @NotNull [] batch) throws IOException {
+    synchronized (writerSynchronisationObject) {
+      OutputStream out = outputStream;
+      if (out == null) {
+        throw new IOException("Serial port is not opened");
+      }
+      int length = 0;
+      for (WriteFrame frame : frames) {
+        ByteBuffer data = frame.data;
+        if (data.remaining() > batch.length - length) {
+          out.write(batch, 0, length);
+          length = 0;
+        }
+        if (data.remaining() > batch.length) {
+          if (data.hasArray()) {
+            out.write(data.array(), data.arrayOffset() + data.position(), data.remaining());
+            continue;
+          }
+          while (data.hasRemaining()) {
+            int chunk = Math.min(batch.length, data.remaining());
+            data.get(batch, 0, chunk);
+            out.write(batch, 0, chunk);
+          }
+          continue;
+        }
+        int chunk = data.remaining();
+        data.get(batch, length, chunk);
+        length += chunk;
+      }
+      if (length > 0) {
+        out.write(batch, 0, length);
+      }
+      out.flush();
+    }
+  }
+
+  private void notifyReceived() {
+    synchronized (this) {
+      this.notify();
+    }
+  }
+
+  private record WriteFrame(@NotNull ByteBuffer data, @NotNull CompletableFuture<Void> future) {
+
+  }
 }
@@ -19,7 +19,7 @@ import org.apache.maven.artifact.versioning.ComparableVersion;
 import org.apache.maven.model.Model;
 import org.apache.maven.model.io.xpp3.MavenXpp3Reader;
 import org.homio.api.Context;
-import org.homio.api.cache.CachedValue;
+import org.homio.api.cache.ConcurrentCachedValue;
 import org.homio.api.fs.archive.ArchiveUtil;
 import org.homio.api.fs.archive.ArchiveUtil.ArchiveFormat;
 import org.homio.api.model.ActionResponseModel;
@@ -76,8 +76,8 @@ public class GitHubProject {
   private final @NotNull
   @Getter Path localProjectPath;
   // releases sorted by published_at
-  private final CachedValue<List<JsonNode>, GitHubProject> releasesCache =
-    new CachedValue<>(Duration.ofHours(24), gitHubProject ->
+  private final ConcurrentCachedValue<List<JsonNode>, GitHubProject> releasesCache =
+    new ConcurrentCachedValue<>(Duration.ofHours(24), gitHubProject ->
       Curl.sendSync(Curl.createGetRequest(gitHubProject.api + "releases", httpHeaders), JsonNode.class, (jsonNode, status) -> {
         List<JsonNode> releases = new ArrayList<>();
         try {
@@ -101,8 +101,8 @@ public class GitHubProject {
         return releases;
       }));
 
-  private final CachedValue<List<JsonNode>, GitHubProject> contentCache =
-    new CachedValue<>(Duration.ofHours(24), gitHubProject ->
+  private final ConcurrentCachedValue<List<JsonNode>, GitHubProject> contentCache =
+    new ConcurrentCachedValue<>(Duration.ofHours(24), gitHubProject ->
       Curl.sendSync(Curl.createGetRequest(gitHubProject.api + "contents", httpHeaders), JsonNode.class, (jsonNode, status) -> {
         List<JsonNode> contents = new ArrayList<>();
         try {
@@ -25,6 +25,7 @@ import java.nio.file.Path;
 import java.time.Duration;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.stream.Collectors;
@@ -33,6 +34,10 @@ import java.util.stream.Collectors;
 public interface EntityService<S extends EntityService.ServiceInstance>
   extends HasStatusAndMsg {
 
+  /**
+   * @deprecated service creation is no longer guarded by single global lock. See getOrCreateService(...)
+   */
+  @Deprecated
   @NotNull
   ReentrantLock serviceAccessLock = new ReentrantLock();
 
@@ -90,25 +95,53 @@ public interface EntityService<S extends EntityService.ServiceInstance>
   @NotNull
   Class<S> getEntityServiceItemClass();
 
+  /**
+   * @return entityIDs of services that have to be started before this one during bootstrap
+   * @see ServiceBootstrap
+   */
+  @JsonIgnore
+  @JSDisableMethod
+  default @NotNull Set<String> getServiceDependencies() {
+    return Set.of();
+  }
+
+  /**
+   * Get existed service or create new one. Services of different entities are created in parallel, concurrent callers
+   * for same entity wait for single createService(...) call
+   */
   @SneakyThrows
   default @NotNull Optional<S> getOrCreateService(@NotNull Context context) {
-    serviceAccessLock.lock();
-    try {
-      if (context().service().isHasService(getEntityID())) {
-        return Optional.of((S) context().service().getEntityService(getEntityID()));
+    String entityID = getEntityID();
+    if (context().service().isHasService(entityID)) {
+      return Optional.of((S) context().service().getEntityService(entityID));
+    }
+    ServiceCreations.Creation creation =
+      new ServiceCreations.Creation(new CompletableFuture<>(), Thread.currentThread());
+    ServiceCreations.Creation existedCreation = ServiceCreations.CREATIONS.putIfAbsent(entityID, creation);
+    if (existedCreation != null) {
+      if (existedCreation.thread() == Thread.currentThread()) {
+        throw new IllegalStateException("Recursive service creation for entity: " + entityID);
       }
-      try {
+      ServiceCreations.await(entityID, existedCreation);
+      return Optional.ofNullable((S) context().service().getEntityService(entityID));
+    }
+    try {
+      // service may be added by creation that finished right before we registered own
+      if (!context().service().isHasService(entityID)) {
         S service = createService(context);
         if (service != null) {
-          context().service().addService(getEntityID(), service);
+          context().service().addService(entityID, service);
         }
-      } catch (Exception ex) {
-        throw new RuntimeException(ex);
       }
-      return Optional.ofNullable((S) context().service().getEntityService(getEntityID()));
+      creation.future().complete(null);
+    } catch (Exception ex) {
+      RuntimeException error = new RuntimeException(ex);
+      creation.future().completeExceptionally(error);
+      throw error;
     } finally {
-      serviceAccessLock.unlock();
+      ServiceCreations.CREATIONS.remove(entityID, creation);
     }
+    return Optional.ofNullable((S) context().service().getEntityService(entityID));
   }
 
   /**
@@ -148,6 +181,10 @@ public interface EntityService<S extends EntityService.ServiceInstance>
     protected final @NotNull String entityID;
     private final @NotNull String name;
     private final @NotNull AtomicBoolean initializing = new AtomicBoolean(false);
+    // startup timings, epoch millis. 0 - not happened yet
+    private final long createdTime = System.currentTimeMillis();
+    private volatile long firstEntityUpdateTime;
+    private volatile long firstInitializedTime;
     protected @NotNull Logger log = LogManager.getLogger(getClass());
     protected @NotNull E entity;
     protected long entityHashCode;
@@ -235,6 +272,9 @@ public interface EntityService<S extends EntityService.ServiceInstance>
      */
     @JSDisableMethod
     public void entityUpdated(@NotNull E newEntity) {
+      if (firstEntityUpdateTime == 0) {
+        firstEntityUpdateTime = System.currentTimeMillis();
+      }
       requestedEntityHashCode = getEntityHashCode(newEntity);
       entity = newEntity;
 
@@ -312,6 +352,7 @@ public interface EntityService<S extends EntityService.ServiceInstance>
             } else {
               if (firstInitialization) {
                 fireWithSetStatus(this::firstInitialize);
+                firstInitializedTime = System.currentTimeMillis();
               } else {
                 fireWithSetStatus(this::initialize);
               }
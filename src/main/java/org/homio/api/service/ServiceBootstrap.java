@@ -0,0 +1,315 @@
+package org.homio.api.service;
+
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+import org.homio.api.Context;
+import org.homio.api.model.Status;
+import org.homio.api.service.EntityService.ServiceInstance;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.homio.api.util.CommonUtils.getErrorMessage;
+
+/**
+ * Creates services of many entities concurrently. Service is created only after all services it depends on (see
+ * EntityService.getServiceDependencies()) are created and settled (online, error, ...) or 'settleTimeout' passed, while
+ * independent services start in parallel on bounded executor. Dependency cycles are reported and ignored. Result is
+ * per-service timing report.
+ */
+@Log4j2
+public class ServiceBootstrap {
+
+  private static final long POLL_INTERVAL = 100;
+
+  private final @NotNull Context context;
+  private final int parallelism;
+  private final boolean virtualThreads;
+  private @NotNull Duration settleTimeout = Duration.ofMinutes(2);
+
+  /**
+   * @param parallelism    - max services created at same time
+   * @param virtualThreads - use virtual threads if runtime supports them
+   */
+  public ServiceBootstrap(@NotNull Context context, int parallelism, boolean virtualThreads) {
+    this.context = context;
+    this.parallelism = Math.max(1, parallelism);
+    this.virtualThreads = virtualThreads;
+  }
+
+  /**
+   * Max time to wait for service to become online before dependent services start anyway
+   */
+  public @NotNull ServiceBootstrap setSettleTimeout(@NotNull Duration settleTimeout) {
+    this.settleTimeout = settleTimeout;
+    return this;
+  }
+
+  /**
+   * Create services of all entities and wait until all of them settled
+   */
+  public @NotNull Report start(@NotNull Collection<? extends EntityService<?>> entities) {
+    long start = System.currentTimeMillis();
+    Map<String, EntityService<?>> entityMap = new HashMap<>();
+    for (EntityService<?> entity : entities) {
+      entityMap.put(entity.getEntityID(), entity);
+    }
+    Map<String, Set<String>> dependencies = new HashMap<>();
+    entityMap.forEach((entityID, entity) -> dependencies.put(entityID, entity.getServiceDependencies()));
+    Set<String> cycles = findCycles(dependencies);
+    if (!cycles.isEmpty()) {
+      log.warn("Service dependency cycle detected. Ignore dependencies of: {}", cycles);
+    }
+
+    ExecutorService executor = createExecutor();
+    Semaphore permits = new Semaphore(parallelism);
+    ScheduledExecutorService poller = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "service-bootstrap-poll");
+      thread.setDaemon(true);
+      return thread;
+    });
+    Map<String, CompletableFuture<ServiceTiming>> futures = new HashMap<>();
+    try {
+      for (String entityID : entityMap.keySet()) {
+        schedule(entityID, entityMap, cycles, futures, executor, permits, poller);
+      }
+      CompletableFuture.allOf(futures.values().toArray(new CompletableFuture[0])).join();
+    } finally {
+      executor.shutdown();
+      poller.shutdownNow();
+    }
+    List<ServiceTiming> timings = new ArrayList<>(futures.size());
+    for (CompletableFuture<ServiceTiming> future : futures.values()) {
+      timings.add(future.join());
+    }
+    timings.sort(Comparator.comparing(ServiceTiming::getSettleTime).reversed());
+    Report report = new Report(Duration.ofMillis(System.currentTimeMillis() - start), timings);
+    log.info("Services bootstrap finished:\n{}", report);
+    return report;
+  }
+
+  private @NotNull CompletableFuture<ServiceTiming> schedule(
+    @NotNull String entityID,
+    @NotNull Map<String, EntityService<?>> entityMap,
+    @NotNull Set<String> cycles,
+    @NotNull Map<String, CompletableFuture<ServiceTiming>> futures,
+    @NotNull ExecutorService executor,
+    @NotNull Semaphore permits,
+    @NotNull ScheduledExecutorService poller) {
+    CompletableFuture<ServiceTiming> future = futures.get(entityID);
+    if (future != null) {
+      return future;
+    }
+    EntityService<?> entity = entityMap.get(entityID);
+    List<CompletableFuture<ServiceTiming>> dependencies = new ArrayList<>();
+    if (!cycles.contains(entityID)) {
+      for (String dependency : entity.getServiceDependencies()) {
+        if (entityMap.containsKey(dependency)) {
+          dependencies.add(schedule(dependency, entityMap, cycles, futures, executor, permits, poller));
+        }
+      }
+    }
+    long queued = System.currentTimeMillis();
+    future = CompletableFuture.allOf(dependencies.toArray(new CompletableFuture[0]))
+                              .thenApplyAsync(ignore -> create(entity, queued, permits), executor)
+                              .thenCompose(timing -> awaitSettled(entity, timing, poller));
+    futures.put(entityID, future);
+    return future;
+  }
+
+  private @NotNull ServiceTiming create(@NotNull EntityService<?> entity, long queued, @NotNull Semaphore permits) {
+    ServiceTiming timing = new ServiceTiming(entity.getEntityID());
+    timing.waitTime = Duration.ofMillis(System.currentTimeMillis() - queued);
+    try {
+      permits.acquire();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      timing.error = "Interrupted";
+      return timing;
+    }
+    long start = System.currentTimeMillis();
+    timing.started = start;
+    try {
+      timing.hasService = entity.getOrCreateService(context).isPresent();
+    } catch (Exception ex) {
+      timing.error = getErrorMessage(ex);
+      log.error("[{}]: Unable to create service", entity.getEntityID(), ex);
+    } finally {
+      permits.release();
+      timing.createTime = Duration.ofMillis(System.currentTimeMillis() - start);
+    }
+    return timing;
+  }
+
+  private @NotNull CompletableFuture<ServiceTiming> awaitSettled(@NotNull EntityService<?> entity,
+                                                                 @NotNull ServiceTiming timing,
+                                                                 @NotNull ScheduledExecutorService poller) {
+    CompletableFuture<ServiceTiming> result = new CompletableFuture<>();
+    if (!timing.hasService || timing.error != null) {
+      timing.status = entity.getStatus();
+      timing.settleTime = timing.createTime;
+      result.complete(timing);
+      return result;
+    }
+    long deadline = timing.started + settleTimeout.toMillis();
+    Runnable[] check = new Runnable[1];
+    check[0] = () -> {
+      // exception would leave result never completed and block whole bootstrap
+      try {
+        Status status = entity.getStatus();
+        long now = System.currentTimeMillis();
+        if (isSettled(status) || now >= deadline) {
+          timing.status = status;
+          timing.settleTime = Duration.ofMillis(now - timing.started);
+          if (entity.optService().orElse(null) instanceof ServiceInstance<?> instance) {
+            timing.firstUpdateTime = since(timing.started, instance.getFirstEntityUpdateTime());
+            timing.initializeTime = since(timing.started, instance.getFirstInitializedTime());
+          }
+          if (!isSettled(status)) {
+            timing.error = "Not settled in " + settleTimeout;
+          }
+          result.complete(timing);
+        } else {
+          poller.schedule(check[0], POLL_INTERVAL, TimeUnit.MILLISECONDS);
+        }
+      } catch (Exception ex) {
+        log.error("[{}]: Unable to check service status", entity.getEntityID(), ex);
+        timing.error = getErrorMessage(ex);
+        timing.settleTime = Duration.ofMillis(System.currentTimeMillis() - timing.started);
+        result.complete(timing);
+      }
+    };
+    check[0].run();
+    return result;
+  }
+
+  private @NotNull ExecutorService createExecutor() {
+    if (virtualThreads) {
+      try {
+        // available since java 21
+        return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+      } catch (Exception ignore) {
+        log.debug("Virtual threads not supported. Use platform threads");
+      }
+    }
+    AtomicInteger counter = new AtomicInteger();
+    return Executors.newFixedThreadPool(parallelism, runnable -> {
+      Thread thread = new Thread(runnable, "service-bootstrap-" + counter.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  private static boolean isSettled(@NotNull Status status) {
+    return !status.inStatus(Status.UNKNOWN, Status.INITIALIZE, Status.RESTARTING, Status.UPDATING, Status.TESTING,
+      Status.CLOSING);
+  }
+
+  private static @Nullable Duration since(long start, long time) {
+    return time == 0 ? null : Duration.ofMillis(Math.max(0, time - start));
+  }
+
+  /**
+   * @param dependencies - entityID -> entityIDs it depends on. Dependencies missed in map are ignored
+   * @return entities that belong to dependency cycle
+   */
+  static @NotNull Set<String> findCycles(@NotNull Map<String, Set<String>> dependencies) {
+    Set<String> cycles = new HashSet<>();
+    Map<String, Integer> state = new HashMap<>(); // 1 - in progress, 2 - done
+    for (String entityID : dependencies.keySet()) {
+      findCycles(entityID, dependencies, state, new ArrayList<>(), cycles);
+    }
+    return cycles;
+  }
+
+  private static void findCycles(@NotNull String entityID, @NotNull Map<String, Set<String>> dependencies,
+                                 @NotNull Map<String, Integer> state, @NotNull List<String> path,
+                                 @NotNull Set<String> cycles) {
+    Integer entityState = state.get(entityID);
+    if (entityState != null) {
+      if (entityState == 1) {
+        cycles.addAll(path.subList(path.indexOf(entityID), path.size()));
+      }
+      return;
+    }
+    state.put(entityID, 1);
+    path.add(entityID);
+    for (String dependency : dependencies.get(entityID)) {
+      if (dependencies.containsKey(dependency)) {
+        findCycles(dependency, dependencies, state, path, cycles);
+      }
+    }
+    path.remove(path.size() - 1);
+    state.put(entityID, 2);
+  }
+
+  @Getter
+  public static class ServiceTiming {
+
+    private final @NotNull String entityID;
+    // time waiting for dependencies and free executor
+    private @NotNull Duration waitTime = Duration.ZERO;
+    private @NotNull Duration createTime = Duration.ZERO;
+    // since create started. null if not happened
+    private @Nullable Duration firstUpdateTime;
+    private @Nullable Duration initializeTime;
+    private @NotNull Duration settleTime = Duration.ZERO;
+    private @Nullable Status status;
+    private @Nullable String error;
+    private boolean hasService;
+    private long started;
+
+    private ServiceTiming(@NotNull String entityID) {
+      this.entityID = entityID;
+    }
+
+    @Override
+    public String toString() {
+      return "%-40s wait: %6dms, create: %6dms, first update: %6s, initialized: %6s, settled: %6dms, status: %s%s".formatted(
+        entityID, waitTime.toMillis(), createTime.toMillis(), format(firstUpdateTime), format(initializeTime),
+        settleTime.toMillis(), status, error == null ? "" : ", error: " + error);
+    }
+
+    private static String format(@Nullable Duration duration) {
+      return duration == null ? "-" : duration.toMillis() + "ms";
+    }
+  }
+
+  @Getter
+  public static class Report {
+
+    private final @NotNull Duration totalTime;
+    // sorted by settle time, slowest first
+    private final @NotNull List<ServiceTiming> timings;
+
+    private Report(@NotNull Duration totalTime, @NotNull List<ServiceTiming> timings) {
+      this.totalTime = totalTime;
+      this.timings = timings;
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder builder = new StringBuilder("Total: %dms, services: %d".formatted(totalTime.toMillis(), timings.size()));
+      for (ServiceTiming timing : timings) {
+        builder.append("\n  ").append(timing);
+      }
+      return builder.toString();
+    }
+  }
+}
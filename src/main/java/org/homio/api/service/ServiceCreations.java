@@ -0,0 +1,89 @@
+package org.homio.api.service;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Service creations in progress of EntityService.getOrCreateService(...). Threads that wait for creation of another
+ * thread are tracked, so dependency cycle between creations (A creates B while B creates A) is reported instead of
+ * deadlock.
+ */
+final class ServiceCreations {
+
+  private static final Duration CYCLE_CHECK_INTERVAL = Duration.ofSeconds(1);
+  private static final Duration AWAIT_TIMEOUT = Duration.ofMinutes(5);
+
+  // entityID -> service creation in progress
+  static final Map<String, Creation> CREATIONS = new ConcurrentHashMap<>();
+  // thread -> entityID which creation thread waits for
+  private static final Map<Thread, String> WAITING = new ConcurrentHashMap<>();
+
+  private ServiceCreations() {
+  }
+
+  /**
+   * Wait for creation of entity by another thread
+   *
+   * @throws IllegalStateException if waiting would deadlock or creation not finished in AWAIT_TIMEOUT
+   */
+  static void await(@NotNull String entityID, @NotNull Creation creation) throws Throwable {
+    Thread thread = Thread.currentThread();
+    WAITING.put(thread, entityID);
+    try {
+      long deadline = System.currentTimeMillis() + AWAIT_TIMEOUT.toMillis();
+      while (true) {
+        // cycle may be closed by another thread after we started waiting
+        String cycle = findCycle(entityID, thread);
+        if (cycle != null) {
+          throw new IllegalStateException("Service creation dependency cycle: " + cycle);
+        }
+        try {
+          creation.future().get(CYCLE_CHECK_INTERVAL.toMillis(), TimeUnit.MILLISECONDS);
+          return;
+        } catch (ExecutionException ex) {
+          throw ex.getCause() == null ? ex : ex.getCause();
+        } catch (TimeoutException ex) {
+          if (System.currentTimeMillis() > deadline) {
+            throw new IllegalStateException("Service of entity %s not created by thread '%s' in %s".formatted(
+              entityID, creation.thread().getName(), AWAIT_TIMEOUT));
+          }
+        }
+      }
+    } finally {
+      WAITING.remove(thread);
+    }
+  }
+
+  // follow 'creation owner -> entity owner waits for' chain. Returns chain if it leads back to thread
+  private static @Nullable String findCycle(@NotNull String entityID, @NotNull Thread thread) {
+    List<String> path = new ArrayList<>();
+    String current = entityID;
+    while (current != null && path.size() <= CREATIONS.size()) {
+      Creation creation = CREATIONS.get(current);
+      if (creation == null) {
+        return null;
+      }
+      path.add(current);
+      if (creation.thread() == thread) {
+        path.add(entityID);
+        return String.join(" -> ", path);
+      }
+      current = WAITING.get(creation.thread());
+    }
+    return null;
+  }
+
+  record Creation(@NotNull CompletableFuture<Void> future, @NotNull Thread thread) {
+
+  }
+}
@@ -0,0 +1,334 @@
+package org.homio.api.storage;
+
+import com.pivovarit.function.ThrowingConsumer;
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+import org.homio.api.Context;
+import org.homio.api.ContextBGP.ThreadContext;
+import org.homio.api.entity.BaseEntity;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Write-behind stage for ContextStorage.createDelayed(...)/updateDelayed(...). Multiple delayed writes of same entityID
+ * are coalesced into single write: field update consumers are applied one after another to same entity instance and entity
+ * saved once. Pending writes flushed in batches every 'flushInterval' or as soon as 'maxBatchSize' entities are pending.
+ * If batch write fails, entities are written one by one; entities that still fail are queued again and retried on next
+ * flushes, up to 'MAX_ATTEMPTS' times.
+ */
+@Log4j2
+public class DelayedEntityWriter {
+
+  private static final int MAX_ATTEMPTS = 5;
+
+  private final @NotNull Context context;
+  private final @NotNull String name;
+  private final @NotNull ThrowingConsumer<List<BaseEntity>, Exception> batchWriter;
+  private final @Nullable Function<String, BaseEntity> entityLoader;
+  private final int maxBatchSize;
+  private final @NotNull ReentrantLock lock = new ReentrantLock();
+  // serialize flushes to keep write order of same entity
+  private final @NotNull ReentrantLock flushLock = new ReentrantLock();
+  // insertion ordered to flush oldest writes first
+  private final @NotNull LinkedHashMap<String, PendingWrite> pending = new LinkedHashMap<>();
+  private final @NotNull AtomicBoolean flushRequested = new AtomicBoolean(false);
+  private final @Getter @NotNull Metrics metrics = new Metrics();
+  private @Nullable ThreadContext<Void> flushThread;
+
+  /**
+   * @param context       - context
+   * @param name          - unique name of writer. Used as background thread name
+   * @param batchWriter   - persist merged entities
+   * @param entityLoader  - fetch latest entity before applying update consumers. If null or returns null - entity passed
+   *                      to updateDelayed(...) is used
+   * @param maxBatchSize  - max entities per batchWriter call. Reaching this number of pending entities triggers flush
+   * @param flushInterval - max time entity may stay in queue
+   */
+  public DelayedEntityWriter(@NotNull Context context, @NotNull String name,
+                             @NotNull ThrowingConsumer<List<BaseEntity>, Exception> batchWriter,
+                             @Nullable Function<String, BaseEntity> entityLoader,
+                             int maxBatchSize, @NotNull Duration flushInterval) {
+    this.context = context;
+    this.name = name;
+    this.batchWriter = batchWriter;
+    this.entityLoader = entityLoader;
+    this.maxBatchSize = Math.max(1, maxBatchSize);
+    this.flushThread = context.bgp().builder(name)
+                              .intervalWithDelay(flushInterval)
+                              .hideOnUI(true)
+                              .execute(() -> flush(false));
+    context.bgp().executeOnExit(name, this::close);
+  }
+
+  public <T extends BaseEntity> void createDelayed(@NotNull T entity) {
+    enqueue(entity, null);
+  }
+
+  public <T extends BaseEntity> void updateDelayed(@NotNull T entity, @NotNull Consumer<T> fieldUpdateConsumer) {
+    enqueue(entity, fieldUpdateConsumer);
+  }
+
+  /**
+   * Write all pending entities and stop scheduler
+   */
+  public void close() {
+    if (flushThread != null) {
+      flushThread.cancel();
+      flushThread = null;
+    }
+    flush(true);
+  }
+
+  /**
+   * @param all - flush whole queue or at most one batch
+   */
+  public void flush(boolean all) {
+    flushLock.lock();
+    try {
+      flushRequested.set(false);
+      // failed writes are retried on next flush, not within this one
+      List<PendingWrite> failed = new ArrayList<>();
+      try {
+        do {
+          List<PendingWrite> batch = pollBatch();
+          if (batch.isEmpty()) {
+            return;
+          }
+          write(batch, failed);
+        } while (all || metrics.getQueueDepth() >= maxBatchSize);
+      } finally {
+        requeue(failed);
+      }
+    } finally {
+      flushLock.unlock();
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private <T extends BaseEntity> void enqueue(@NotNull T entity, @Nullable Consumer<T> fieldUpdateConsumer) {
+    int depth;
+    lock.lock();
+    try {
+      PendingWrite write = pending.get(entity.getEntityID());
+      if (write == null) {
+        write = new PendingWrite(entity, fieldUpdateConsumer == null);
+        pending.put(entity.getEntityID(), write);
+      } else {
+        metrics.coalesced.incrementAndGet();
+        if (fieldUpdateConsumer == null) {
+          // full entity replaces previous state; consumers queued before are already reflected or obsolete
+          write.entity = entity;
+          write.create = true;
+          write.consumers.clear();
+        }
+      }
+      if (fieldUpdateConsumer != null) {
+        write.consumers.add((Consumer<BaseEntity>) fieldUpdateConsumer);
+      }
+      depth = pending.size();
+    } finally {
+      lock.unlock();
+    }
+    metrics.requests.incrementAndGet();
+    if (depth >= maxBatchSize && flushRequested.compareAndSet(false, true)) {
+      context.bgp().execute(() -> flush(false));
+    }
+  }
+
+  private @NotNull List<PendingWrite> pollBatch() {
+    lock.lock();
+    try {
+      List<PendingWrite> batch = new ArrayList<>(Math.min(maxBatchSize, pending.size()));
+      Iterator<PendingWrite> iterator = pending.values().iterator();
+      while (iterator.hasNext() && batch.size() < maxBatchSize) {
+        batch.add(iterator.next());
+        iterator.remove();
+      }
+      return batch;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void write(@NotNull List<PendingWrite> batch, @NotNull List<PendingWrite> failed) {
+    long start = System.nanoTime();
+    List<PendingWrite> merged = new ArrayList<>(batch.size());
+    List<BaseEntity> entities = new ArrayList<>(batch.size());
+    for (PendingWrite write : batch) {
+      try {
+        entities.add(write.merge());
+        merged.add(write);
+      } catch (Exception ex) {
+        log.error("[{}]: Unable to apply delayed update to entity: {}", name, write.entity.getEntityID(), ex);
+        failed.add(write);
+      }
+    }
+    try {
+      batchWriter.accept(entities);
+      metrics.writes.addAndGet(entities.size());
+    } catch (Exception ex) {
+      log.warn("[{}]: Unable to write {} delayed entities in batch. Write one by one", name, entities.size(), ex);
+      // one bad entity must not fail whole batch
+      for (int i = 0; i < entities.size(); i++) {
+        try {
+          batchWriter.accept(List.of(entities.get(i)));
+          metrics.writes.incrementAndGet();
+        } catch (Exception singleEx) {
+          log.error("[{}]: Unable to write delayed entity: {}", name, entities.get(i).getEntityID(), singleEx);
+          failed.add(merged.get(i));
+        }
+      }
+    }
+    metrics.registerFlush(System.nanoTime() - start);
+  }
+
+  // put failed writes back into queue. Newer pending write of same entity is applied after failed one and keeps own
+  // attempts counter
+  private void requeue(@NotNull List<PendingWrite> failed) {
+    if (failed.isEmpty()) {
+      return;
+    }
+    lock.lock();
+    try {
+      for (PendingWrite write : failed) {
+        write.attempts++;
+        if (write.attempts >= MAX_ATTEMPTS) {
+          metrics.failed.incrementAndGet();
+          log.error("[{}]: Give up writing delayed entity {} after {} attempts", name, write.entity.getEntityID(),
+            write.attempts);
+          continue;
+        }
+        String entityID = write.entity.getEntityID();
+        PendingWrite newer = pending.get(entityID);
+        if (newer == null) {
+          pending.put(entityID, write);
+        } else if (!newer.create) {
+          newer.consumers.addAll(0, write.consumers);
+          if (write.create) {
+            newer.entity = write.entity;
+            newer.create = true;
+          }
+        }
+        // else: newer full entity replaces failed write
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private class PendingWrite {
+
+    private final List<Consumer<BaseEntity>> consumers = new ArrayList<>(1);
+    private BaseEntity entity;
+    private boolean create;
+    private int attempts;
+
+    private PendingWrite(BaseEntity entity, boolean create) {
+      this.entity = entity;
+      this.create = create;
+    }
+
+    /**
+     * Apply queued consumers. Merged entity is kept as full state and applied consumers are removed, so retry of failed
+     * write doesn't apply same consumer twice
+     */
+    private BaseEntity merge() {
+      BaseEntity target = entity;
+      if (!create && entityLoader != null) {
+        BaseEntity latest = entityLoader.apply(entity.getEntityID());
+        if (latest != null) {
+          target = latest;
+        }
+      }
+      entity = target;
+      create = true;
+      while (!consumers.isEmpty()) {
+        consumers.get(0).accept(target);
+        consumers.remove(0);
+      }
+      return target;
+    }
+  }
+
+  public class Metrics {
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong writes = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong flushes = new AtomicLong();
+    private final AtomicLong totalFlushNanos = new AtomicLong();
+    private volatile long lastFlushNanos;
+    private volatile long maxFlushNanos;
+
+    public long getRequests() {
+      return requests.get();
+    }
+
+    public long getCoalesced() {
+      return coalesced.get();
+    }
+
+    public long getWrites() {
+      return writes.get();
+    }
+
+    public long getFailed() {
+      return failed.get();
+    }
+
+    public long getFlushes() {
+      return flushes.get();
+    }
+
+    public int getQueueDepth() {
+      lock.lock();
+      try {
+        return pending.size();
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    /**
+     * @return number of delayed requests per single entity write. 1 - nothing coalesced
+     */
+    public double getCoalesceRatio() {
+      long written = writes.get() + failed.get();
+      return written == 0 ? 1 : (double) requests.get() / written;
+    }
+
+    public Duration getLastFlushLatency() {
+      return Duration.ofNanos(lastFlushNanos);
+    }
+
+    public Duration getMaxFlushLatency() {
+      return Duration.ofNanos(maxFlushNanos);
+    }
+
+    public Duration getAverageFlushLatency() {
+      long count = flushes.get();
+      return Duration.ofNanos(count == 0 ? 0 : totalFlushNanos.get() / count);
+    }
+
+    private void registerFlush(long nanos) {
+      flushes.incrementAndGet();
+      totalFlushNanos.addAndGet(nanos);
+      lastFlushNanos = nanos;
+      if (nanos > maxFlushNanos) {
+        maxFlushNanos = nanos;
+      }
+    }
+  }
+}
@@ -0,0 +1,1090 @@
+package org.homio.api.storage;
+
+import com.mongodb.MongoClientSettings;
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+import org.apache.commons.lang3.ClassUtils;
+import org.apache.commons.lang3.reflect.FieldUtils;
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonRegularExpression;
+import org.bson.BsonValue;
+import org.bson.conversions.Bson;
+import org.homio.api.entity.widget.AggregationType;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.IntUnaryOperator;
+import java.util.regex.Pattern;
+
+/**
+ * Columnar in-memory time series storage. Keeps 'created' timestamps in long[] and numeric values in double[] ring buffer, so
+ * time series/aggregation queries work over primitive arrays without boxing every row. Non-numeric values are stored as NaN
+ * in value column. Arrays grow geometrically up to quota, then oldest rows are overwritten when ring is full. Null quota
+ * means unbounded storage.
+ * <p>
+ * Saved entities are not kept: every pojo field is stored in own column (primitive array for numeric/boolean fields) and
+ * entities are created again only by find/query methods. Pojo without default constructor, or saving entity of other class
+ * than pojoClass, falls back to keeping whole entities.
+ */
+@Log4j2
+public class InMemoryDataStorageService<T extends DataStorageEntity> implements DataStorageService<T> {
+
+  private static final int INITIAL_CAPACITY = 64;
+  private static final String VALUE = "value";
+  private static final String ID = "_id";
+  private static final Field ID_FIELD = FieldUtils.getField(DataStorageEntity.class, "id", true);
+  private static final Field CREATED_FIELD = FieldUtils.getField(DataStorageEntity.class, CREATED, true);
+
+  private final @Getter @NotNull Class<T> pojoClass;
+  private final @Getter @NotNull String uniqueId;
+  private final @NotNull Map<String, Consumer<T>> saveListeners = new ConcurrentHashMap<>();
+  private final @NotNull Map<String, Field> fields = new ConcurrentHashMap<>();
+  private final @NotNull ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+  private @Nullable Long quota;
+  // creates entity from columns. Null if whole entities are kept in single column
+  private @Nullable Constructor<T> constructor;
+  private @NotNull List<Column> columns;
+  // pojo field name -> column
+  private @NotNull Map<String, Column> fieldColumns;
+  private long[] ids;
+  private long[] created;
+  private double[] values;
+  // index of oldest row inside ring
+  private int head;
+  private int size;
+  // true while rows appended with non-decreasing 'created'. Allows binary search by time range
+  private boolean ordered = true;
+
+  public InMemoryDataStorageService(@NotNull Class<T> pojoClass, @NotNull String uniqueId, @Nullable Long quota) {
+    this.pojoClass = pojoClass;
+    this.uniqueId = uniqueId;
+    this.quota = quota;
+    // quota may be huge, allocate lazily
+    int capacity = quota == null ? INITIAL_CAPACITY : Math.min(INITIAL_CAPACITY, toCapacity(quota));
+    this.ids = new long[capacity];
+    this.created = new long[capacity];
+    this.values = new double[capacity];
+    this.constructor = findConstructor(pojoClass);
+    if (constructor == null) {
+      this.fieldColumns = Map.of();
+      this.columns = List.of(new ObjectColumn(null, capacity));
+    } else {
+      this.fieldColumns = createColumns(pojoClass, capacity);
+      this.columns = new ArrayList<>(fieldColumns.values());
+    }
+  }
+
+  @Override
+  public @NotNull T save(@NotNull T entity) {
+    lock.writeLock().lock();
+    try {
+      append(entity);
+    } finally {
+      lock.writeLock().unlock();
+    }
+    fireSaveListeners(entity);
+    return entity;
+  }
+
+  @Override
+  public void save(@NotNull List<T> entities) {
+    lock.writeLock().lock();
+    try {
+      for (T entity : entities) {
+        append(entity);
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+    for (T entity : entities) {
+      fireSaveListeners(entity);
+    }
+  }
+
+  @Override
+  public long count(@Nullable Long from, @Nullable Long to) {
+    lock.readLock().lock();
+    try {
+      int end = upperBound(to);
+      int count = 0;
+      for (int i = lowerBound(from); i < end; i++) {
+        if (inRange(created[slot(i)], from, to)) {
+          count++;
+        }
+      }
+      return count;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public long deleteBy(@NotNull String field, @NotNull Object value) {
+    lock.writeLock().lock();
+    try {
+      return removeIf(slot -> matchValue(read(slot, field), value));
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public long deleteAll() {
+    lock.writeLock().lock();
+    try {
+      int removed = size;
+      for (int i = 0; i < size; i++) {
+        clearRow(slot(i));
+      }
+      head = 0;
+      size = 0;
+      ordered = true;
+      return removed;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public @Nullable T findLatestBy(@NotNull String field, @NotNull String value) {
+    lock.readLock().lock();
+    try {
+      for (int i = size - 1; i >= 0; i--) {
+        int slot = slot(i);
+        if (matchValue(read(slot, field), value)) {
+          return entity(slot);
+        }
+      }
+      return null;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public @Nullable T getLatest() {
+    lock.readLock().lock();
+    try {
+      return size == 0 ? null : entity(slot(size - 1));
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public @NotNull List<T> queryListWithSort(Bson filter, SortBy sort, Integer limit) {
+    BsonDocument query = filter == null ? new BsonDocument() :
+      filter.toBsonDocument(BsonDocument.class, MongoClientSettings.getDefaultCodecRegistry());
+    List<T> result = new ArrayList<>();
+    lock.readLock().lock();
+    try {
+      for (int i = 0; i < size; i++) {
+        int slot = slot(i);
+        if (matchDocument(slot, query)) {
+          result.add(entity(slot));
+        }
+      }
+    } finally {
+      lock.readLock().unlock();
+    }
+    if (sort != null) {
+      result.sort(createComparator(sort));
+    }
+    if (limit != null && result.size() > limit) {
+      return new ArrayList<>(result.subList(0, limit));
+    }
+    return result;
+  }
+
+  @Override
+  public @Nullable Long getQuota() {
+    return quota;
+  }
+
+  @Override
+  public void updateQuota(@Nullable Long quota) {
+    lock.writeLock().lock();
+    try {
+      this.quota = quota;
+      // shrink only. Growing happens on append
+      if (quota != null && created.length > toCapacity(quota)) {
+        resize(toCapacity(quota));
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public long getUsed() {
+    return size;
+  }
+
+  @Override
+  public List<SourceHistoryItem> getSourceHistoryItems(@Nullable String field, @Nullable String value, int from, int count) {
+    List<SourceHistoryItem> items = new ArrayList<>(Math.max(0, Math.min(count, size)));
+    lock.readLock().lock();
+    try {
+      int skip = from;
+      for (int i = size - 1; i >= 0 && items.size() < count; i--) {
+        int slot = slot(i);
+        if (matchFilter(slot, field, value)) {
+          if (skip > 0) {
+            skip--;
+          } else {
+            items.add(new SourceHistoryItem(created[slot], read(slot, VALUE)));
+          }
+        }
+      }
+    } finally {
+      lock.readLock().unlock();
+    }
+    return items;
+  }
+
+  @Override
+  public @NotNull List<Object[]> getTimeSeries(@Nullable Long from, @Nullable Long to, @Nullable String field,
+                                               @Nullable String value, @NotNull String aggregateField,
+                                               @Nullable Integer limit, boolean sortAsc) {
+    TimeSeries series = getTimeSeriesColumns(from, to, field, value, aggregateField, limit, sortAsc);
+    List<Object[]> result = new ArrayList<>(series.size);
+    for (int i = 0; i < series.size; i++) {
+      result.add(new Object[]{series.timestamps[i], series.values[i]});
+    }
+    return result;
+  }
+
+  /**
+   * Same as getTimeSeries(...) but returns primitive columns without boxing every row. Rows with non-numeric values are
+   * skipped
+   *
+   * @param from           - min 'created' inclusive
+   * @param to             - max 'created' inclusive
+   * @param field          - filter field name
+   * @param value          - filter field value
+   * @param aggregateField - field to read numeric value from
+   * @param limit          - max rows. Rows closest to 'to' are preserved when sortAsc is false
+   * @param sortAsc        - sort by 'created'
+   * @return time series columns
+   */
+  public @NotNull TimeSeries getTimeSeriesColumns(@Nullable Long from, @Nullable Long to, @Nullable String field,
+                                                  @Nullable String value, @NotNull String aggregateField,
+                                                  @Nullable Integer limit, boolean sortAsc) {
+    lock.readLock().lock();
+    try {
+      int start = lowerBound(from);
+      int end = upperBound(to);
+      int max = Math.max(0, end - start);
+      if (ordered && limit != null) {
+        max = Math.min(max, limit);
+      }
+      TimeSeries series = new TimeSeries(max);
+      int i = sortAsc ? start : end - 1;
+      int step = sortAsc ? 1 : -1;
+      for (; i >= start && i < end && series.size < max; i += step) {
+        int slot = slot(i);
+        if (inRange(created[slot], from, to) && matchFilter(slot, field, value)) {
+          double number = readNumber(slot, aggregateField);
+          if (!Double.isNaN(number)) {
+            series.timestamps[series.size] = created[slot];
+            series.values[series.size++] = number;
+          }
+        }
+      }
+      if (!ordered) {
+        series.sort(sortAsc);
+        if (limit != null && series.size > limit) {
+          series.size = limit;
+        }
+      }
+      return series;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public @NotNull Object aggregate(@Nullable Long from, @Nullable Long to, @Nullable String field, @Nullable String value,
+                                   @NotNull AggregationType aggregationType, boolean filterOnlyNumbers,
+                                   @NotNull String aggregateField) {
+    lock.readLock().lock();
+    try {
+      int start = lowerBound(from);
+      int end = upperBound(to);
+      if (aggregationType == AggregationType.Median) {
+        return median(start, end, from, to, field, value, aggregateField);
+      }
+      long count = 0, nonZeroCount = 0;
+      double sum = 0, min = Double.NaN, max = Double.NaN, first = Double.NaN, last = Double.NaN;
+      long firstTime = Long.MAX_VALUE, lastTime = Long.MIN_VALUE;
+      for (int i = start; i < end; i++) {
+        int slot = slot(i);
+        if (!inRange(created[slot], from, to) || !matchFilter(slot, field, value)) {
+          continue;
+        }
+        double number = readNumber(slot, aggregateField);
+        if (Double.isNaN(number)) {
+          if (!filterOnlyNumbers && aggregationType == AggregationType.Count) {
+            count++;
+          }
+          continue;
+        }
+        count++;
+        sum += number;
+        if (number != 0) {
+          nonZeroCount++;
+        }
+        min = Double.isNaN(min) ? number : Math.min(min, number);
+        max = Double.isNaN(max) ? number : Math.max(max, number);
+        // use strict/non-strict comparison to get same first/last as sorted by 'created' stream
+        if (created[slot] < firstTime) {
+          firstTime = created[slot];
+          first = number;
+        }
+        if (created[slot] >= lastTime) {
+          lastTime = created[slot];
+          last = number;
+        }
+      }
+      return switch (aggregationType) {
+        case Count -> count;
+        case Sum -> sum;
+        case Min -> Double.isNaN(min) ? 0D : min;
+        case Max -> Double.isNaN(max) ? 0D : max;
+        case First -> Double.isNaN(first) ? 0D : first;
+        case Last, None -> Double.isNaN(last) ? 0D : last;
+        case Average -> count == 0 ? 0D : sum / count;
+        case AverageNoZero -> nonZeroCount == 0 ? 0D : sum / nonZeroCount;
+        default -> throw new IllegalStateException("Unable to evaluate unknown Aggregation type");
+      };
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public @NotNull DataStorageService<T> addSaveListener(@NotNull String discriminator, @NotNull Consumer<T> listener) {
+    saveListeners.put(discriminator, listener);
+    return this;
+  }
+
+  private void fireSaveListeners(@NotNull T entity) {
+    for (Consumer<T> listener : saveListeners.values()) {
+      try {
+        listener.accept(entity);
+      } catch (Exception ex) {
+        log.error("[{}]: Error during handle save listener", uniqueId, ex);
+      }
+    }
+  }
+
+  private void append(@NotNull T entity) {
+    if (constructor != null && entity.getClass() != pojoClass) {
+      switchToEntityColumn();
+    }
+    if (size == created.length) {
+      int maxCapacity = toCapacity(quota == null ? Long.MAX_VALUE : quota);
+      if (created.length < maxCapacity) {
+        resize((int) Math.min(maxCapacity, created.length + (created.length >> 1) + 1L));
+      } else {
+        // ring is full, drop oldest row. Its slot is reused below
+        head = (head + 1) % created.length;
+        size--;
+      }
+    }
+    int slot = slot(size);
+    if (size > 0 && entity.getCreated() < created[slot(size - 1)]) {
+      ordered = false;
+    }
+    ids[slot] = entity.getId();
+    created[slot] = entity.getCreated();
+    values[slot] = toNumber(entity.getValue());
+    try {
+      for (Column column : columns) {
+        column.write(slot, entity);
+      }
+    } catch (IllegalAccessException ex) {
+      throw new IllegalStateException(ex);
+    }
+    size++;
+  }
+
+  // copy rows to new arrays with newest rows preserved and head reset to 0
+  private void resize(int capacity) {
+    if (capacity == created.length) {
+      return;
+    }
+    int keep = Math.min(size, capacity);
+    IntUnaryOperator oldSlot = i -> slot(size - keep + i);
+    long[] newIds = new long[capacity];
+    long[] newCreated = new long[capacity];
+    double[] newValues = new double[capacity];
+    for (int i = 0; i < keep; i++) {
+      int slot = oldSlot.applyAsInt(i);
+      newIds[i] = ids[slot];
+      newCreated[i] = created[slot];
+      newValues[i] = values[slot];
+    }
+    for (Column column : columns) {
+      column.resize(capacity, keep, oldSlot);
+    }
+    ids = newIds;
+    created = newCreated;
+    values = newValues;
+    head = 0;
+    size = keep;
+  }
+
+  private void clearRow(int slot) {
+    for (Column column : columns) {
+      column.clear(slot);
+    }
+  }
+
+  // entity of other class can't be created from pojoClass columns, so keep whole entities from now
+  private void switchToEntityColumn() {
+    ObjectColumn entityColumn = new ObjectColumn(null, created.length);
+    for (int i = 0; i < size; i++) {
+      int slot = slot(i);
+      entityColumn.data[slot] = entity(slot);
+    }
+    constructor = null;
+    fieldColumns = Map.of();
+    columns = List.of(entityColumn);
+  }
+
+  private int removeIf(@NotNull SlotPredicate predicate) {
+    int write = 0;
+    for (int read = 0; read < size; read++) {
+      int from = slot(read);
+      if (!predicate.test(from)) {
+        int to = slot(write++);
+        ids[to] = ids[from];
+        created[to] = created[from];
+        values[to] = values[from];
+        for (Column column : columns) {
+          column.move(from, to);
+        }
+      }
+    }
+    for (int i = write; i < size; i++) {
+      clearRow(slot(i));
+    }
+    int removed = size - write;
+    size = write;
+    return removed;
+  }
+
+  private @NotNull Object median(int start, int end, @Nullable Long from, @Nullable Long to, @Nullable String field,
+                                 @Nullable String value, @NotNull String aggregateField) {
+    // single scratch array per query; selection runs in place
+    double[] scratch = new double[Math.max(0, end - start)];
+    int count = 0;
+    for (int i = start; i < end; i++) {
+      int slot = slot(i);
+      if (inRange(created[slot], from, to) && matchFilter(slot, field, value)) {
+        double number = readNumber(slot, aggregateField);
+        if (!Double.isNaN(number)) {
+          scratch[count++] = number;
+        }
+      }
+    }
+    if (count == 0) {
+      return 0D;
+    }
+    double upper = select(scratch, count, count / 2);
+    if (count % 2 == 1) {
+      return upper;
+    }
+    // after selection all items before count/2 are <= upper, so lower median is max of them
+    double lower = scratch[0];
+    for (int i = 1; i < count / 2; i++) {
+      lower = Math.max(lower, scratch[i]);
+    }
+    return (lower + upper) / 2;
+  }
+
+  // Hoare's quickselect. Returns k-th smallest element among first 'length' items
+  private static double select(double[] items, int length, int k) {
+    int left = 0, right = length - 1;
+    while (left < right) {
+      double pivot = items[(left + right) >>> 1];
+      int i = left, j = right;
+      while (i <= j) {
+        while (items[i] < pivot) {
+          i++;
+        }
+        while (items[j] > pivot) {
+          j--;
+        }
+        if (i <= j) {
+          double tmp = items[i];
+          items[i++] = items[j];
+          items[j--] = tmp;
+        }
+      }
+      if (k <= j) {
+        right = j;
+      } else if (k >= i) {
+        left = i;
+      } else {
+        break;
+      }
+    }
+    return items[k];
+  }
+
+  private int slot(int index) {
+    int slot = head + index;
+    return slot >= created.length ? slot - created.length : slot;
+  }
+
+  // first logical index with created >= from. Falls back to full scan when rows are not ordered
+  private int lowerBound(@Nullable Long from) {
+    if (from == null || !ordered) {
+      return 0;
+    }
+    int low = 0, high = size;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (created[slot(mid)] < from) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  // first logical index with created > to
+  private int upperBound(@Nullable Long to) {
+    if (to == null || !ordered) {
+      return size;
+    }
+    int low = 0, high = size;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (created[slot(mid)] <= to) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  private static boolean inRange(long time, @Nullable Long from, @Nullable Long to) {
+    return (from == null || time >= from) && (to == null || time <= to);
+  }
+
+  private boolean matchFilter(int slot, @Nullable String field, @Nullable String value) {
+    if (field == null || value == null) {
+      return true;
+    }
+    Object fieldValue = read(slot, field);
+    return fieldValue instanceof String str ? str.equals(value) : fieldValue != null && value.equals(fieldValue.toString());
+  }
+
+  private double readNumber(int slot, @NotNull String field) {
+    return VALUE.equals(field) ? values[slot] : toNumber(read(slot, field));
+  }
+
+  private @Nullable Object read(int slot, @NotNull String field) {
+    return switch (field) {
+      case CREATED -> created[slot];
+      case ID, "id" -> ids[slot];
+      default -> {
+        Column column = fieldColumns.get(field);
+        if (column != null) {
+          yield column.get(slot);
+        }
+        if (VALUE.equals(field)) {
+          yield entity(slot).getValue();
+        }
+        Field reflectField = fields.computeIfAbsent(field, name -> {
+          Field found = FieldUtils.getField(pojoClass, name, true);
+          if (found == null) {
+            throw new IllegalArgumentException("Unable to find field '" + name + "' in " + pojoClass.getSimpleName());
+          }
+          return found;
+        });
+        try {
+          yield reflectField.get(entity(slot));
+        } catch (IllegalAccessException ex) {
+          throw new IllegalStateException(ex);
+        }
+      }
+    };
+  }
+
+  @SuppressWarnings("unchecked")
+  private T entity(int slot) {
+    if (constructor == null) {
+      return (T) columns.get(0).get(slot);
+    }
+    try {
+      T entity = constructor.newInstance();
+      ID_FIELD.setLong(entity, ids[slot]);
+      CREATED_FIELD.setLong(entity, created[slot]);
+      for (Column column : columns) {
+        column.field.set(entity, column.get(slot));
+      }
+      return entity;
+    } catch (ReflectiveOperationException ex) {
+      throw new IllegalStateException("Unable to create " + pojoClass.getSimpleName(), ex);
+    }
+  }
+
+  private static <T> @Nullable Constructor<T> findConstructor(@NotNull Class<T> pojoClass) {
+    if (Modifier.isAbstract(pojoClass.getModifiers())) {
+      return null;
+    }
+    try {
+      Constructor<T> constructor = pojoClass.getDeclaredConstructor();
+      constructor.setAccessible(true);
+      return constructor;
+    } catch (NoSuchMethodException | RuntimeException ex) {
+      return null;
+    }
+  }
+
+  // all instance fields except id/created which have own columns
+  private static @NotNull Map<String, Column> createColumns(@NotNull Class<?> pojoClass, int capacity) {
+    Map<String, Column> columns = new LinkedHashMap<>();
+    for (Field field : FieldUtils.getAllFieldsList(pojoClass)) {
+      if (field.getDeclaringClass() == DataStorageEntity.class || field.isSynthetic()
+          || Modifier.isStatic(field.getModifiers())) {
+        continue;
+      }
+      field.setAccessible(true);
+      columns.putIfAbsent(field.getName(), Column.of(field, capacity));
+    }
+    return columns;
+  }
+
+  private boolean matchDocument(int slot, @NotNull BsonDocument query) {
+    for (Map.Entry<String, BsonValue> entry : query.entrySet()) {
+      String key = entry.getKey();
+      BsonValue condition = entry.getValue();
+      if (key.equals("$and") || key.equals("$or")) {
+        boolean and = key.equals("$and");
+        boolean matched = and;
+        for (BsonValue item : (BsonArray) condition) {
+          if (matchDocument(slot, item.asDocument()) != and) {
+            matched = !and;
+            break;
+          }
+        }
+        if (!matched) {
+          return false;
+        }
+      } else if (!matchCondition(read(slot, key), condition)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean matchCondition(@Nullable Object actual, @NotNull BsonValue condition) {
+    if (!condition.isDocument()) {
+      return matchValue(actual, toJava(condition));
+    }
+    for (Map.Entry<String, BsonValue> operator : condition.asDocument().entrySet()) {
+      Object expected = toJava(operator.getValue());
+      boolean matched = switch (operator.getKey()) {
+        case "$eq" -> matchValue(actual, expected);
+        case "$ne" -> !matchValue(actual, expected);
+        case "$gt" -> compare(actual, expected) > 0;
+        case "$gte" -> compare(actual, expected) >= 0;
+        case "$lt" -> compare(actual, expected) < 0;
+        case "$lte" -> compare(actual, expected) <= 0;
+        case "$regex" -> matchValue(actual, expected instanceof Pattern ? expected : Pattern.compile(expected.toString()));
+        default -> throw new IllegalArgumentException("Unsupported in-memory filter operator: " + operator.getKey());
+      };
+      if (!matched) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean matchValue(@Nullable Object actual, @Nullable Object expected) {
+    if (expected instanceof Pattern pattern) {
+      return actual != null && pattern.matcher(actual.toString()).find();
+    }
+    if (actual instanceof Number n1 && expected instanceof Number n2) {
+      return n1.doubleValue() == n2.doubleValue();
+    }
+    if (actual instanceof Enum<?> e && expected instanceof String str) {
+      return e.name().equals(str);
+    }
+    return Objects.equals(actual, expected);
+  }
+
+  private static int compare(@Nullable Object actual, @Nullable Object expected) {
+    if (actual == null || expected == null) {
+      return actual == expected ? 0 : (actual == null ? -1 : 1);
+    }
+    if (actual instanceof Number n1 && expected instanceof Number n2) {
+      return Double.compare(n1.doubleValue(), n2.doubleValue());
+    }
+    return actual.toString().compareTo(expected.toString());
+  }
+
+  private static @Nullable Object toJava(@NotNull BsonValue value) {
+    return switch (value.getBsonType()) {
+      case STRING -> value.asString().getValue();
+      case INT32 -> value.asInt32().getValue();
+      case INT64 -> value.asInt64().getValue();
+      case DOUBLE -> value.asDouble().getValue();
+      case BOOLEAN -> value.asBoolean().getValue();
+      case DATE_TIME -> value.asDateTime().getValue();
+      case REGULAR_EXPRESSION -> toPattern(value.asRegularExpression());
+      case NULL -> null;
+      default -> throw new IllegalArgumentException("Unsupported in-memory filter value: " + value);
+    };
+  }
+
+  private static @NotNull Pattern toPattern(@NotNull BsonRegularExpression regex) {
+    int flags = 0;
+    String options = regex.getOptions();
+    if (options.contains("i")) {
+      flags |= Pattern.CASE_INSENSITIVE;
+    }
+    if (options.contains("m")) {
+      flags |= Pattern.MULTILINE;
+    }
+    if (options.contains("s")) {
+      flags |= Pattern.DOTALL;
+    }
+    return Pattern.compile(regex.getPattern(), flags);
+  }
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private @NotNull Comparator<T> createComparator(@NotNull SortBy sort) {
+    Comparator<T> comparator;
+    if (CREATED.equals(sort.getOrderField())) {
+      comparator = Comparator.comparingLong(DataStorageEntity::getCreated);
+    } else if (ID.equals(sort.getOrderField()) || "id".equals(sort.getOrderField())) {
+      comparator = Comparator.comparingLong(DataStorageEntity::getId);
+    } else {
+      Field field = FieldUtils.getField(pojoClass, sort.getOrderField(), true);
+      if (field == null) {
+        throw new IllegalArgumentException("Unable to find field '" + sort.getOrderField() + "' in " + pojoClass.getSimpleName());
+      }
+      comparator = Comparator.comparing(entity -> {
+        try {
+          return (Comparable) field.get(entity);
+        } catch (IllegalAccessException ex) {
+          throw new IllegalStateException(ex);
+        }
+      }, Comparator.nullsFirst(Comparator.naturalOrder()));
+    }
+    return sort.isAsc() ? comparator : comparator.reversed();
+  }
+
+  private static double toNumber(@Nullable Object value) {
+    if (value instanceof Number number) {
+      return number.doubleValue();
+    }
+    if (value instanceof Boolean bool) {
+      return bool ? 1 : 0;
+    }
+    return Double.NaN;
+  }
+
+  private static int toCapacity(long quota) {
+    return (int) Math.max(1, Math.min(quota, Integer.MAX_VALUE - 8));
+  }
+
+  private interface SlotPredicate {
+
+    boolean test(int slot);
+  }
+
+  /**
+   * Values of single pojo field of all rows. Slots are same as in created/values ring
+   */
+  private abstract static class Column {
+
+    // null if column keeps whole entities
+    protected final Field field;
+
+    private Column(Field field) {
+      this.field = field;
+    }
+
+    private static @NotNull Column of(@NotNull Field field, int capacity) {
+      Class<?> type = ClassUtils.primitiveToWrapper(field.getType());
+      if (type == Double.class || type == Float.class) {
+        return new DoubleColumn(field, capacity);
+      }
+      if (type == Long.class || type == Integer.class || type == Short.class || type == Byte.class
+          || type == Character.class || type == Boolean.class) {
+        return new LongColumn(field, capacity);
+      }
+      return new ObjectColumn(field, capacity);
+    }
+
+    abstract void write(int slot, @NotNull Object entity) throws IllegalAccessException;
+
+    abstract @Nullable Object get(int slot);
+
+    abstract void move(int from, int to);
+
+    void clear(int slot) {
+    }
+
+    // reallocate arrays. Row 'i' of new arrays is taken from slot oldSlot(i)
+    abstract void resize(int capacity, int keep, @NotNull IntUnaryOperator oldSlot);
+  }
+
+  // integral, char and boolean fields
+  private static class LongColumn extends Column {
+
+    private final @NotNull Class<?> type;
+    private long[] data;
+    // null for primitive field
+    private boolean[] nulls;
+
+    private LongColumn(@NotNull Field field, int capacity) {
+      super(field);
+      this.type = ClassUtils.primitiveToWrapper(field.getType());
+      this.data = new long[capacity];
+      this.nulls = field.getType().isPrimitive() ? null : new boolean[capacity];
+    }
+
+    @Override
+    void write(int slot, @NotNull Object entity) throws IllegalAccessException {
+      if (nulls == null) {
+        data[slot] = type == Boolean.class ? (field.getBoolean(entity) ? 1 : 0) : field.getLong(entity);
+        return;
+      }
+      Object value = field.get(entity);
+      nulls[slot] = value == null;
+      if (value instanceof Number number) {
+        data[slot] = number.longValue();
+      } else if (value instanceof Character character) {
+        data[slot] = character;
+      } else if (value instanceof Boolean bool) {
+        data[slot] = bool ? 1 : 0;
+      }
+    }
+
+    @Override
+    @Nullable Object get(int slot) {
+      if (nulls != null && nulls[slot]) {
+        return null;
+      }
+      long value = data[slot];
+      if (type == Integer.class) {
+        return (int) value;
+      }
+      if (type == Short.class) {
+        return (short) value;
+      }
+      if (type == Byte.class) {
+        return (byte) value;
+      }
+      if (type == Character.class) {
+        return (char) value;
+      }
+      if (type == Boolean.class) {
+        return value != 0;
+      }
+      return value;
+    }
+
+    @Override
+    void move(int from, int to) {
+      data[to] = data[from];
+      if (nulls != null) {
+        nulls[to] = nulls[from];
+      }
+    }
+
+    @Override
+    void resize(int capacity, int keep, @NotNull IntUnaryOperator oldSlot) {
+      long[] newData = new long[capacity];
+      boolean[] newNulls = nulls == null ? null : new boolean[capacity];
+      for (int i = 0; i < keep; i++) {
+        int slot = oldSlot.applyAsInt(i);
+        newData[i] = data[slot];
+        if (newNulls != null) {
+          newNulls[i] = nulls[slot];
+        }
+      }
+      data = newData;
+      nulls = newNulls;
+    }
+  }
+
+  // float and double fields
+  private static class DoubleColumn extends Column {
+
+    private final boolean isFloat;
+    private double[] data;
+    // null for primitive field
+    private boolean[] nulls;
+
+    private DoubleColumn(@NotNull Field field, int capacity) {
+      super(field);
+      this.isFloat = ClassUtils.primitiveToWrapper(field.getType()) == Float.class;
+      this.data = new double[capacity];
+      this.nulls = field.getType().isPrimitive() ? null : new boolean[capacity];
+    }
+
+    @Override
+    void write(int slot, @NotNull Object entity) throws IllegalAccessException {
+      if (nulls == null) {
+        data[slot] = field.getDouble(entity);
+        return;
+      }
+      Object value = field.get(entity);
+      nulls[slot] = value == null;
+      data[slot] = value == null ? 0 : ((Number) value).doubleValue();
+    }
+
+    @Override
+    @Nullable Object get(int slot) {
+      if (nulls != null && nulls[slot]) {
+        return null;
+      }
+      return isFloat ? (Object) (float) data[slot] : (Object) data[slot];
+    }
+
+    @Override
+    void move(int from, int to) {
+      data[to] = data[from];
+      if (nulls != null) {
+        nulls[to] = nulls[from];
+      }
+    }
+
+    @Override
+    void resize(int capacity, int keep, @NotNull IntUnaryOperator oldSlot) {
+      double[] newData = new double[capacity];
+      boolean[] newNulls = nulls == null ? null : new boolean[capacity];
+      for (int i = 0; i < keep; i++) {
+        int slot = oldSlot.applyAsInt(i);
+        newData[i] = data[slot];
+        if (newNulls != null) {
+          newNulls[i] = nulls[slot];
+        }
+      }
+      data = newData;
+      nulls = newNulls;
+    }
+  }
+
+  // reference fields or whole entities
+  private static class ObjectColumn extends Column {
+
+    private Object[] data;
+
+    private ObjectColumn(@Nullable Field field, int capacity) {
+      super(field);
+      this.data = new Object[capacity];
+    }
+
+    @Override
+    void write(int slot, @NotNull Object entity) throws IllegalAccessException {
+      data[slot] = field == null ? entity : field.get(entity);
+    }
+
+    @Override
+    @Nullable Object get(int slot) {
+      return data[slot];
+    }
+
+    @Override
+    void move(int from, int to) {
+      data[to] = data[from];
+    }
+
+    @Override
+    void clear(int slot) {
+      data[slot] = null;
+    }
+
+    @Override
+    void resize(int capacity, int keep, @NotNull IntUnaryOperator oldSlot) {
+      Object[] newData = new Object[capacity];
+      for (int i = 0; i < keep; i++) {
+        newData[i] = data[oldSlot.applyAsInt(i)];
+      }
+      data = newData;
+    }
+  }
+
+  /**
+   * Primitive time series columns. Only first 'size' items are valid
+   */
+  @Getter
+  public static class TimeSeries {
+
+    private final long[] timestamps;
+    private final double[] values;
+    private int size;
+
+    public TimeSeries(int capacity) {
+      this.timestamps = new long[capacity];
+      this.values = new double[capacity];
+    }
+
+    // in-place heap sort by timestamp; only used when rows were saved out of 'created' order
+    private void sort(boolean asc) {
+      for (int i = size / 2 - 1; i >= 0; i--) {
+        siftDown(i, size, asc);
+      }
+      for (int end = size - 1; end > 0; end--) {
+        swap(0, end);
+        siftDown(0, end, asc);
+      }
+    }
+
+    private void siftDown(int root, int length, boolean asc) {
+      while (true) {
+        int child = 2 * root + 1;
+        if (child >= length) {
+          return;
+        }
+        if (child + 1 < length && before(child, child + 1, asc)) {
+          child++;
+        }
+        if (!before(root, child, asc)) {
+          return;
+        }
+        swap(root, child);
+        root = child;
+      }
+    }
+
+    private boolean before(int i, int j, boolean asc) {
+      return asc ? timestamps[i] < timestamps[j] : timestamps[i] > timestamps[j];
+    }
+
+    private void swap(int i, int j) {
+      long time = timestamps[i];
+      timestamps[i] = timestamps[j];
+      timestamps[j] = time;
+      double value = values[i];
+      values[i] = values[j];
+      values[j] = value;
+    }
+  }
+}
@@ -0,0 +1,140 @@
+package org.homio.api.storage;
+
+import lombok.Getter;
+
+/**
+ * Mergeable streaming histogram (Ben-Haim/Tom-Tov) for approximate quantiles. Keeps at most 'capacity' sorted centroids;
+ * when full, two adjacent centroids with the smallest distance are merged. Result is exact while number of distinct values
+ * is below capacity.
+ */
+public class QuantileSketch {
+
+  private final int capacity;
+  private double[] means;
+  private long[] weights;
+  private int size;
+  private @Getter long count;
+  private @Getter double min = Double.NaN;
+  private @Getter double max = Double.NaN;
+
+  public QuantileSketch(int capacity) {
+    this.capacity = Math.max(2, capacity);
+    // grow lazily, most buckets have few values
+    this.means = new double[Math.min(4, this.capacity + 1)];
+    this.weights = new long[means.length];
+  }
+
+  public void add(double value) {
+    add(value, 1);
+  }
+
+  public void merge(QuantileSketch other) {
+    for (int i = 0; i < other.size; i++) {
+      add(other.means[i], other.weights[i]);
+    }
+    if (other.count > 0) {
+      min = Double.isNaN(min) ? other.min : Math.min(min, other.min);
+      max = Double.isNaN(max) ? other.max : Math.max(max, other.max);
+    }
+  }
+
+  /**
+   * @param quantile - value in range 0..1
+   * @return approximate value at quantile or NaN if sketch is empty
+   */
+  public double quantile(double quantile) {
+    if (count == 0) {
+      return Double.NaN;
+    }
+    double target = quantile * count;
+    // centroid 'i' is treated as located at cumulative weight before it + half of its weight
+    double previousCenter = 0;
+    double previousMean = min;
+    long cumulative = 0;
+    for (int i = 0; i < size; i++) {
+      double center = cumulative + weights[i] / 2D;
+      if (target <= center) {
+        if (center == previousCenter) {
+          return means[i];
+        }
+        double ratio = (target - previousCenter) / (center - previousCenter);
+        return previousMean + ratio * (means[i] - previousMean);
+      }
+      cumulative += weights[i];
+      previousCenter = center;
+      previousMean = means[i];
+    }
+    if (count == previousCenter) {
+      return max;
+    }
+    double ratio = (target - previousCenter) / (count - previousCenter);
+    return previousMean + ratio * (max - previousMean);
+  }
+
+  public double median() {
+    return quantile(0.5);
+  }
+
+  private void add(double value, long weight) {
+    count += weight;
+    min = Double.isNaN(min) ? value : Math.min(min, value);
+    max = Double.isNaN(max) ? value : Math.max(max, value);
+
+    int index = binarySearch(value);
+    if (index >= 0) {
+      weights[index] += weight;
+      return;
+    }
+    index = -index - 1;
+    if (size == means.length) {
+      int length = Math.min(capacity + 1, means.length * 2);
+      double[] newMeans = new double[length];
+      long[] newWeights = new long[length];
+      System.arraycopy(means, 0, newMeans, 0, size);
+      System.arraycopy(weights, 0, newWeights, 0, size);
+      means = newMeans;
+      weights = newWeights;
+    }
+    System.arraycopy(means, index, means, index + 1, size - index);
+    System.arraycopy(weights, index, weights, index + 1, size - index);
+    means[index] = value;
+    weights[index] = weight;
+    size++;
+    if (size > capacity) {
+      compress();
+    }
+  }
+
+  private void compress() {
+    int closest = 0;
+    double minGap = Double.MAX_VALUE;
+    for (int i = 0; i < size - 1; i++) {
+      double gap = means[i + 1] - means[i];
+      if (gap < minGap) {
+        minGap = gap;
+        closest = i;
+      }
+    }
+    long weight = weights[closest] + weights[closest + 1];
+    means[closest] = (means[closest] * weights[closest] + means[closest + 1] * weights[closest + 1]) / weight;
+    weights[closest] = weight;
+    System.arraycopy(means, closest + 2, means, closest + 1, size - closest - 2);
+    System.arraycopy(weights, closest + 2, weights, closest + 1, size - closest - 2);
+    size--;
+  }
+
+  private int binarySearch(double value) {
+    int low = 0, high = size - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      if (means[mid] < value) {
+        low = mid + 1;
+      } else if (means[mid] > value) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -(low + 1);
+  }
+}
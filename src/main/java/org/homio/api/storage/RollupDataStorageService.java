@@ -0,0 +1,478 @@
+package org.homio.api.storage;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.apache.commons.lang3.reflect.FieldUtils;
+import org.bson.conversions.Bson;
+import org.homio.api.entity.widget.AggregationType;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.reflect.Field;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * DataStorageService wrapper that maintains per-minute/hour/day rollup buckets (count, min, max, sum and quantile sketch)
+ * updated incrementally from save listener. getSourceHistory(...) and getTimeSeries(...) are served from buckets instead of
+ * full scan of underlying storage. Buckets are built from full scan once on first read.
+ * <p>
+ * Buckets are kept for whole series or per value of 'groupField'. Queries filtered by any other field fallback to
+ * underlying storage. Rollups reflect saved history; rows evicted by underlying storage quota are still counted until
+ * bucket retention expires.
+ */
+@Log4j2
+public class RollupDataStorageService<T extends DataStorageEntity> implements DataStorageService<T> {
+
+  private static final String VALUE = "value";
+  private static final AtomicInteger INSTANCES = new AtomicInteger();
+
+  private final @Getter @NotNull DataStorageService<T> delegate;
+  private final @Nullable String groupField;
+  // unique per instance, so few rollups over same storage do not replace each other listener
+  private final @NotNull String listenerKey = "rollup-" + INSTANCES.incrementAndGet();
+  private final @Nullable Field groupReflectField;
+  private final @NotNull ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+  // key null - whole series
+  private final @NotNull Map<String, Series> series = new HashMap<>();
+  private final @NotNull Map<Resolution, Duration> retention = new EnumMap<>(Resolution.class);
+  private final int sketchCapacity;
+  /**
+   * Min number of buckets in requested range to serve getTimeSeries(...) from rollups. Smaller ranges read raw rows
+   */
+  private final int minTimeSeriesPoints;
+
+  private volatile boolean built;
+  private @Nullable List<T> pendingOnBuild;
+
+  /**
+   * @param delegate            - underlying storage
+   * @param groupField          - entity field to maintain separate rollups for, i.e. 'source'. May be null
+   * @param minTimeSeriesPoints - min number of buckets in range to serve time series from rollups
+   * @param sketchCapacity      - max centroids per bucket quantile sketch
+   */
+  public RollupDataStorageService(@NotNull DataStorageService<T> delegate, @NotNull Class<T> pojoClass,
+                                  @Nullable String groupField, int minTimeSeriesPoints, int sketchCapacity) {
+    this.delegate = delegate;
+    this.groupField = groupField;
+    this.minTimeSeriesPoints = minTimeSeriesPoints;
+    this.sketchCapacity = sketchCapacity;
+    if (groupField == null) {
+      this.groupReflectField = null;
+    } else {
+      this.groupReflectField = FieldUtils.getField(pojoClass, groupField, true);
+      if (groupReflectField == null) {
+        throw new IllegalArgumentException("Unable to find field '" + groupField + "' in " + pojoClass.getSimpleName());
+      }
+    }
+    for (Resolution resolution : Resolution.values()) {
+      retention.put(resolution, resolution.defaultRetention);
+    }
+    delegate.addSaveListener(listenerKey, this::accept);
+  }
+
+  public RollupDataStorageService(@NotNull DataStorageService<T> delegate, @NotNull Class<T> pojoClass,
+                                  @Nullable String groupField) {
+    this(delegate, pojoClass, groupField, 200, 16);
+  }
+
+  /**
+   * Set how long buckets of resolution are kept. Null retention keeps buckets forever
+   */
+  public RollupDataStorageService<T> setRetention(@NotNull Resolution resolution, @Nullable Duration duration) {
+    lock.writeLock().lock();
+    try {
+      retention.put(resolution, duration);
+    } finally {
+      lock.writeLock().unlock();
+    }
+    return this;
+  }
+
+  /**
+   * Drop all buckets and rebuild them from full scan of underlying storage
+   */
+  public void rebuild() {
+    lock.writeLock().lock();
+    try {
+      series.clear();
+      pendingOnBuild = new ArrayList<>();
+    } finally {
+      lock.writeLock().unlock();
+    }
+    // scan without lock to not block savers. Entities saved meanwhile are collected in pendingOnBuild
+    List<T> all = delegate.findAll();
+    lock.writeLock().lock();
+    try {
+      // ids are not guaranteed to be ordered by save, so skip exactly entities returned by scan
+      Set<Long> scannedIds = new HashSet<>(all.size() * 2);
+      for (T entity : all) {
+        addToBuckets(entity);
+        scannedIds.add(entity.getId());
+      }
+      for (T entity : Objects.requireNonNull(pendingOnBuild)) {
+        if (!scannedIds.contains(entity.getId())) {
+          addToBuckets(entity);
+        }
+      }
+      pendingOnBuild = null;
+      built = true;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public SourceHistory getSourceHistory(@Nullable String field, @Nullable String value) {
+    if (!isRollupFilter(field, value)) {
+      return delegate.getSourceHistory(field, value);
+    }
+    ensureBuilt();
+    lock.readLock().lock();
+    try {
+      Bucket total = new Bucket(0, sketchCapacity);
+      Series items = series.get(seriesKey(field, value));
+      if (items != null) {
+        // day buckets cover full history unless retention was limited
+        Resolution resolution = Resolution.Day;
+        for (Resolution candidate : Resolution.values()) {
+          if (retention.get(candidate) == null) {
+            resolution = candidate;
+          }
+        }
+        for (Bucket bucket : items.get(resolution).values()) {
+          total.merge(bucket);
+        }
+      }
+      return new SourceHistory((int) total.count,
+        (float) total.getMin(), (float) total.getMax(), (float) total.getMedian());
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public @NotNull List<Object[]> getTimeSeries(@Nullable Long from, @Nullable Long to, @Nullable String field,
+                                               @Nullable String value, @NotNull String aggregateField,
+                                               @Nullable Integer limit, boolean sortAsc) {
+    if (VALUE.equals(aggregateField) && isRollupFilter(field, value)) {
+      ensureBuilt();
+      lock.readLock().lock();
+      try {
+        Series items = series.get(seriesKey(field, value));
+        Resolution resolution = items == null ? null : items.findResolution(from, to);
+        if (resolution != null) {
+          return items.readTimeSeries(resolution, from, to, limit, sortAsc);
+        }
+      } finally {
+        lock.readLock().unlock();
+      }
+    }
+    return delegate.getTimeSeries(from, to, field, value, aggregateField, limit, sortAsc);
+  }
+
+  @Override
+  public List<SourceHistoryItem> getSourceHistoryItems(@Nullable String field, @Nullable String value, int from, int count) {
+    return delegate.getSourceHistoryItems(field, value, from, count);
+  }
+
+  @Override
+  public T save(@NotNull T entity) {
+    return delegate.save(entity);
+  }
+
+  @Override
+  public void save(@NotNull List<T> entities) {
+    delegate.save(entities);
+  }
+
+  @Override
+  public long count(@Nullable Long from, @Nullable Long to) {
+    return delegate.count(from, to);
+  }
+
+  @Override
+  public long deleteBy(@NotNull String field, @NotNull Object value) {
+    long deleted = delegate.deleteBy(field, value);
+    if (deleted > 0) {
+      invalidate();
+    }
+    return deleted;
+  }
+
+  @Override
+  public long deleteAll() {
+    long deleted = delegate.deleteAll();
+    invalidate();
+    return deleted;
+  }
+
+  @Override
+  public @Nullable T findLatestBy(@NotNull String field, @NotNull String value) {
+    return delegate.findLatestBy(field, value);
+  }
+
+  @Override
+  public @Nullable T getLatest() {
+    return delegate.getLatest();
+  }
+
+  @Override
+  public @NotNull List<T> queryListWithSort(Bson filter, SortBy sort, Integer limit) {
+    return delegate.queryListWithSort(filter, sort, limit);
+  }
+
+  @Override
+  public @Nullable Long getQuota() {
+    return delegate.getQuota();
+  }
+
+  @Override
+  public void updateQuota(@Nullable Long quota) {
+    delegate.updateQuota(quota);
+  }
+
+  @Override
+  public long getUsed() {
+    return delegate.getUsed();
+  }
+
+  @Override
+  public @NotNull Object aggregate(@Nullable Long from, @Nullable Long to, @Nullable String field, @Nullable String value,
+                                   @NotNull AggregationType aggregationType, boolean filterOnlyNumbers,
+                                   @NotNull String aggregateField) {
+    return delegate.aggregate(from, to, field, value, aggregationType, filterOnlyNumbers, aggregateField);
+  }
+
+  @Override
+  public @NotNull DataStorageService<T> addSaveListener(@NotNull String discriminator, @NotNull Consumer<T> listener) {
+    delegate.addSaveListener(discriminator, listener);
+    return this;
+  }
+
+  private void accept(@NotNull T entity) {
+    lock.writeLock().lock();
+    try {
+      if (pendingOnBuild != null) {
+        pendingOnBuild.add(entity);
+      } else if (built) {
+        addToBuckets(entity);
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  private void ensureBuilt() {
+    if (!built) {
+      synchronized (this) {
+        if (!built) {
+          rebuild();
+        }
+      }
+    }
+  }
+
+  private void invalidate() {
+    lock.writeLock().lock();
+    try {
+      series.clear();
+      built = false;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  private void addToBuckets(@NotNull T entity) {
+    Object value = entity.getValue();
+    double number = value instanceof Number n ? n.doubleValue() : Double.NaN;
+    series.computeIfAbsent(null, k -> new Series()).add(entity.getCreated(), number);
+    if (groupReflectField != null) {
+      Object group = readGroup(entity);
+      if (group != null) {
+        series.computeIfAbsent(group.toString(), k -> new Series()).add(entity.getCreated(), number);
+      }
+    }
+  }
+
+  private @Nullable Object readGroup(@NotNull T entity) {
+    try {
+      return Objects.requireNonNull(groupReflectField).get(entity);
+    } catch (IllegalAccessException ex) {
+      throw new IllegalStateException(ex);
+    }
+  }
+
+  private boolean isRollupFilter(@Nullable String field, @Nullable String value) {
+    return field == null || value == null || field.equals(groupField);
+  }
+
+  private @Nullable String seriesKey(@Nullable String field, @Nullable String value) {
+    return field == null || value == null ? null : value;
+  }
+
+  @Getter
+  @RequiredArgsConstructor
+  public enum Resolution {
+    Minute(Duration.ofMinutes(1), Duration.ofHours(6)),
+    Hour(Duration.ofHours(1), Duration.ofDays(30)),
+    Day(Duration.ofDays(1), null);
+
+    private final @NotNull Duration duration;
+    private final @Nullable Duration defaultRetention;
+
+    public long truncate(long timestamp) {
+      long millis = duration.toMillis();
+      return Math.floorDiv(timestamp, millis) * millis;
+    }
+  }
+
+  private class Series {
+
+    private final Map<Resolution, NavigableMap<Long, Bucket>> buckets = new EnumMap<>(Resolution.class);
+    private long latest = Long.MIN_VALUE;
+
+    private Series() {
+      for (Resolution resolution : Resolution.values()) {
+        buckets.put(resolution, new TreeMap<>());
+      }
+    }
+
+    private NavigableMap<Long, Bucket> get(@NotNull Resolution resolution) {
+      return buckets.get(resolution);
+    }
+
+    private void add(long created, double number) {
+      latest = Math.max(latest, created);
+      for (Resolution resolution : Resolution.values()) {
+        NavigableMap<Long, Bucket> map = buckets.get(resolution);
+        Duration keep = retention.get(resolution);
+        if (keep != null && created < latest - keep.toMillis()) {
+          continue;
+        }
+        long start = resolution.truncate(created);
+        Bucket bucket = map.get(start);
+        if (bucket == null) {
+          bucket = new Bucket(start, sketchCapacity);
+          map.put(start, bucket);
+          if (keep != null) {
+            // new bucket started, drop expired ones
+            map.headMap(resolution.truncate(latest - keep.toMillis()), false).clear();
+          }
+        }
+        bucket.add(number);
+      }
+    }
+
+    /**
+     * Find coarsest resolution that has enough buckets in range and whose retention covers range start
+     */
+    private @Nullable Resolution findResolution(@Nullable Long from, @Nullable Long to) {
+      long rangeFrom = from == null ? firstBucketStart() : from;
+      long rangeTo = to == null ? latest : to;
+      if (rangeFrom == Long.MAX_VALUE || rangeTo < rangeFrom) {
+        return null;
+      }
+      Resolution[] resolutions = Resolution.values();
+      for (int i = resolutions.length - 1; i >= 0; i--) {
+        Resolution resolution = resolutions[i];
+        Duration keep = retention.get(resolution);
+        if (keep != null && rangeFrom < latest - keep.toMillis()) {
+          continue;
+        }
+        long points = (rangeTo - rangeFrom) / resolution.duration.toMillis();
+        if (points >= minTimeSeriesPoints) {
+          return resolution;
+        }
+      }
+      return null;
+    }
+
+    private long firstBucketStart() {
+      long first = Long.MAX_VALUE;
+      for (NavigableMap<Long, Bucket> map : buckets.values()) {
+        if (!map.isEmpty()) {
+          first = Math.min(first, map.firstKey());
+        }
+      }
+      return first;
+    }
+
+    private @NotNull List<Object[]> readTimeSeries(@NotNull Resolution resolution, @Nullable Long from, @Nullable Long to,
+                                                   @Nullable Integer limit, boolean sortAsc) {
+      NavigableMap<Long, Bucket> map = buckets.get(resolution);
+      if (from != null || to != null) {
+        map = map.subMap(from == null ? Long.MIN_VALUE : resolution.truncate(from), true,
+          to == null ? Long.MAX_VALUE : to, true);
+      }
+      Collection<Bucket> items = sortAsc ? map.values() : map.descendingMap().values();
+      List<Object[]> result = new ArrayList<>(Math.min(items.size(), limit == null ? Integer.MAX_VALUE : limit));
+      for (Bucket bucket : items) {
+        if (limit != null && result.size() >= limit) {
+          break;
+        }
+        if (bucket.numberCount > 0) {
+          result.add(new Object[]{bucket.start, bucket.sum / bucket.numberCount});
+        }
+      }
+      return result;
+    }
+  }
+
+  private static class Bucket {
+
+    private final long start;
+    private final QuantileSketch sketch;
+    // count of all rows including non-numbers
+    private long count;
+    private long numberCount;
+    private double sum;
+
+    private Bucket(long start, int sketchCapacity) {
+      this.start = start;
+      this.sketch = new QuantileSketch(sketchCapacity);
+    }
+
+    private void add(double number) {
+      count++;
+      if (!Double.isNaN(number)) {
+        numberCount++;
+        sum += number;
+        sketch.add(number);
+      }
+    }
+
+    private void merge(@NotNull Bucket bucket) {
+      count += bucket.count;
+      numberCount += bucket.numberCount;
+      sum += bucket.sum;
+      sketch.merge(bucket.sketch);
+    }
+
+    private double getMin() {
+      return numberCount == 0 ? 0 : sketch.getMin();
+    }
+
+    private double getMax() {
+      return numberCount == 0 ? 0 : sketch.getMax();
+    }
+
+    private double getMedian() {
+      return numberCount == 0 ? 0 : sketch.median();
+    }
+  }
+}
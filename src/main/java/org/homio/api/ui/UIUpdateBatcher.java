@@ -0,0 +1,197 @@
+package org.homio.api.ui;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+import org.homio.api.Context;
+import org.homio.api.ContextBGP.ThreadContext;
+import org.homio.api.entity.BaseEntity;
+import org.homio.api.entity.BaseEntityIdentifier;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Frame based batcher for ContextUI.updateItem(...), updateInnerSetItem(...) and sendDynamicUpdate(...). Within single
+ * frame only latest value per (entity, field, inner entity, inner field) is kept; whole entity update replaces all
+ * pending field updates of same entity. Every frame is sent as one list of deltas, so UI gets consistent snapshot at
+ * bounded rate regardless of how often devices report values.
+ */
+@Log4j2
+public class UIUpdateBatcher {
+
+  private static final AtomicInteger COUNTER = new AtomicInteger();
+
+  private final @NotNull Consumer<List<Delta>> sender;
+  private final @NotNull ReentrantLock lock = new ReentrantLock();
+  // insertion ordered so deltas are sent in order of first change within frame
+  private @NotNull LinkedHashMap<DeltaKey, Delta> pending = new LinkedHashMap<>();
+  private final @NotNull AtomicLong received = new AtomicLong();
+  private final @NotNull AtomicLong sent = new AtomicLong();
+  private final @NotNull AtomicLong frames = new AtomicLong();
+  private @Nullable ThreadContext<Void> frameThread;
+
+  /**
+   * @param context - context
+   * @param name    - unique batcher name. Used as background thread name
+   * @param frame   - max frequency of sending updates to UI
+   * @param sender  - send single delta message of frame. Called from single thread
+   */
+  public UIUpdateBatcher(@NotNull Context context, @NotNull String name, @NotNull Duration frame,
+                         @NotNull Consumer<List<Delta>> sender) {
+    this.sender = sender;
+    this.frameThread = context.bgp().builder(name)
+                              .intervalWithDelay(frame)
+                              .hideOnUI(true)
+                              .execute(this::flush);
+  }
+
+  public UIUpdateBatcher(@NotNull Context context, @NotNull Duration frame, @NotNull Consumer<List<Delta>> sender) {
+    // thread with same name would replace thread of another batcher
+    this(context, "ui-update-batcher-" + COUNTER.incrementAndGet(), frame, sender);
+  }
+
+  public UIUpdateBatcher(@NotNull Context context, @NotNull Consumer<List<Delta>> sender) {
+    this(context, Duration.ofMillis(100), sender);
+  }
+
+  public void updateItem(@NotNull BaseEntity entity) {
+    lock.lock();
+    try {
+      String entityID = entity.getEntityID();
+      pending.keySet().removeIf(key -> key.type != DeltaType.dynamic && key.entityID.equals(entityID));
+      put(new DeltaKey(DeltaType.item, entityID, null, null, null), entity);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public void updateItem(@NotNull BaseEntityIdentifier entity, @NotNull String updateField, @Nullable Object value) {
+    lock.lock();
+    try {
+      put(new DeltaKey(DeltaType.field, entity.getEntityID(), updateField, null, null), value);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public void updateInnerSetItem(@NotNull BaseEntityIdentifier parentEntity, @NotNull String parentFieldName,
+                                 @NotNull String innerEntityID, @NotNull String updateField, @NotNull Object value) {
+    lock.lock();
+    try {
+      put(new DeltaKey(DeltaType.inner, parentEntity.getEntityID(), parentFieldName, innerEntityID, updateField), value);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public void sendDynamicUpdate(@NotNull String dynamicUpdateID, @NotNull Object value) {
+    lock.lock();
+    try {
+      put(new DeltaKey(DeltaType.dynamic, dynamicUpdateID, null, null, null), value);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Send pending deltas immediately
+   */
+  public void flush() {
+    LinkedHashMap<DeltaKey, Delta> frame;
+    lock.lock();
+    try {
+      if (pending.isEmpty()) {
+        return;
+      }
+      frame = pending;
+      pending = new LinkedHashMap<>();
+    } finally {
+      lock.unlock();
+    }
+    frames.incrementAndGet();
+    sent.addAndGet(frame.size());
+    try {
+      sender.accept(new ArrayList<>(frame.values()));
+    } catch (Exception ex) {
+      log.error("Unable to send UI updates", ex);
+    }
+  }
+
+  public void close() {
+    if (frameThread != null) {
+      frameThread.cancel();
+      frameThread = null;
+    }
+    flush();
+  }
+
+  public long getReceived() {
+    return received.get();
+  }
+
+  public long getSent() {
+    return sent.get();
+  }
+
+  public long getFrames() {
+    return frames.get();
+  }
+
+  // must be called under lock
+  private void put(@NotNull DeltaKey key, @Nullable Object value) {
+    received.incrementAndGet();
+    Delta delta = pending.get(key);
+    if (delta == null) {
+      pending.put(key, new Delta(key, value));
+    } else {
+      delta.value = value;
+    }
+  }
+
+  public enum DeltaType {
+    item, field, inner, dynamic
+  }
+
+  private record DeltaKey(@NotNull DeltaType type, @NotNull String entityID, @Nullable String field,
+                          @Nullable String innerID, @Nullable String innerField) {
+
+  }
+
+  @Getter
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  public static class Delta {
+
+    private final @NotNull DeltaType type;
+    // entity id or dynamic update id
+    private final @NotNull String id;
+    private final @Nullable String field;
+    private final @Nullable String innerID;
+    private final @Nullable String innerField;
+    private @Nullable Object value;
+
+    private Delta(@NotNull DeltaKey key, @Nullable Object value) {
+      this.type = key.type;
+      this.id = key.entityID;
+      this.field = key.field;
+      this.innerID = key.innerID;
+      this.innerField = key.innerField;
+      this.value = value;
+    }
+
+    @Override
+    public String toString() {
+      return type + ":" + id + (field == null ? "" : "." + field) + (innerID == null ? "" : "[" + innerID + "]")
+             + (innerField == null ? "" : "." + innerField) + "=" + Objects.toString(value);
+    }
+  }
+}
@@ -6,14 +6,18 @@ import lombok.extern.log4j.Log4j2;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.homio.api.Context;
-import org.homio.hquery.hardware.network.NetworkHardwareRepository;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Collection;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 import java.util.stream.Stream;
 
@@ -60,12 +64,26 @@ public class HardwareUtils {
   }
 
   // Simple utility for scan for ip range
-  public static void scanForDevice(Context context, int devicePort, String deviceName,
-                                   ThrowingFunction<String, Boolean, Exception> testDevice,
-                                   Consumer<String> createDeviceHandler) {
+  public static NetworkScanner.Report scanForDevice(Context context, int devicePort, String deviceName,
+                                                    ThrowingFunction<String, Boolean, Exception> testDevice,
+                                                    Consumer<String> createDeviceHandler) {
+    String machineNetwork = MACHINE_IP_ADDRESS.substring(0, MACHINE_IP_ADDRESS.lastIndexOf(".") + 1) + "0/24";
+    return scanForDevice(context, List.of("127.0.0.1", machineNetwork), devicePort, deviceName, testDevice,
+      createDeviceHandler);
+  }
+
+  /**
+   * Scan networks for hosts with open 'devicePort' and ask user to create device for every host accepted by testDevice
+   *
+   * @param networks - ranges in CIDR notation, i.e. from ContextNetwork.addNetworkAddressChanged(...)
+   */
+  public static NetworkScanner.Report scanForDevice(Context context, Collection<String> networks, int devicePort,
+                                                    String deviceName,
+                                                    ThrowingFunction<String, Boolean, Exception> testDevice,
+                                                    Consumer<String> createDeviceHandler) {
     Consumer<String> deviceHandler = (ip) -> {
       try {
-        if (testDevice.apply("127.0.0.1")) {
+        if (testDevice.apply(ip)) {
           List<String> messages = new ArrayList<>();
           messages.add(Lang.getServerMessage("NEW_DEVICE.GENERAL_QUESTION", deviceName));
           messages.add(Lang.getServerMessage("NEW_DEVICE.TITLE", deviceName + "(" + ip + ":" + devicePort + ")"));
@@ -78,10 +96,27 @@ public class HardwareUtils {
       }
     };
 
-    NetworkHardwareRepository networkHardwareRepository = context.getBean(NetworkHardwareRepository.class);
-    String ipAddressRange = MACHINE_IP_ADDRESS.substring(0, MACHINE_IP_ADDRESS.lastIndexOf(".") + 1) + "0-255";
-    deviceHandler.accept("127.0.0.1");
-    networkHardwareRepository.buildPingIpAddressTasks(ipAddressRange, log::info, Collections.singleton(devicePort), 500,
-      (url, port) -> deviceHandler.accept(url));
+    // testDevice may block, so hosts with open port are tested outside of scanner thread
+    AtomicInteger counter = new AtomicInteger();
+    ExecutorService testExecutor = Executors.newFixedThreadPool(8, runnable -> {
+      Thread thread = new Thread(runnable, "scan-" + deviceName + "-" + counter.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    try {
+      NetworkScanner.Report report = new NetworkScanner().scan(networks, Set.of(devicePort),
+        (ip, port) -> testExecutor.execute(() -> deviceHandler.accept(ip)));
+      log.info("Scan {} for {} finished. {}", networks, deviceName, report);
+      return report;
+    } catch (IOException ex) {
+      throw new RuntimeException("Unable to scan network for " + deviceName, ex);
+    } finally {
+      testExecutor.shutdown();
+      try {
+        testExecutor.awaitTermination(1, TimeUnit.MINUTES);
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+    }
   }
 }
@@ -1,27 +1,34 @@
 package org.homio.api.util;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import org.apache.commons.lang3.StringUtils;
-import org.apache.commons.lang3.text.StrSubstitutor;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static org.homio.api.util.JsonUtils.OBJECT_MAPPER;
 
 public enum Lang {
   en, ru;
 
-  private static final Map<String, ObjectNode> i18nLang = new HashMap<>();
+  private static volatile Map<String, ObjectNode> i18nLang = new ConcurrentHashMap<>();
+  // language -> flat 'a.b.c' key -> precompiled server message
+  private static volatile Map<String, Map<String, CompiledTemplate>> catalogs = new ConcurrentHashMap<>();
   public static String CURRENT_LANG = "en";
 
   public static void clear() {
-    i18nLang.clear();
+    i18nLang = new ConcurrentHashMap<>();
+    catalogs = new ConcurrentHashMap<>();
   }
 
   public static ObjectNode getLangJson(@Nullable String lang) {
@@ -30,7 +37,7 @@ public enum Lang {
 
   public static String findPathText(@NotNull String name) {
     ObjectNode objectNode = getJson(null, false);
-    return objectNode.at("/" + name.replaceAll("\\.", "/")).textValue();
+    return objectNode.at("/" + name.replace('.', '/')).textValue();
   }
 
   public static String getServerMessage(@Nullable String message, @Nullable String value) {
@@ -66,17 +73,93 @@ public enum Lang {
   }
 
   public static String getServerMessage(@NotNull String language, @NotNull String message, @Nullable Map<String, String> params) {
-    ObjectNode langJson = getJson(language, true);
-    String text = StringUtils.defaultIfEmpty(langJson.at("/" + message.replaceAll("\\.", "/")).textValue(), message);
-    return params == null ? text : StrSubstitutor.replace(text, params, "{{", "}}");
+    CompiledTemplate template = getCatalog(language).get(message);
+    if (template == null) {
+      // message is not i18n key. Such messages may still contain placeholders
+      return params == null ? message : CompiledTemplate.compile(message).render(params);
+    }
+    return params == null ? template.text : template.render(params);
+  }
+
+  private static Map<String, CompiledTemplate> getCatalog(@NotNull String language) {
+    Map<String, Map<String, CompiledTemplate>> current = catalogs;
+    Map<String, CompiledTemplate> catalog = current.get(language);
+    if (catalog == null) {
+      catalog = current.computeIfAbsent(language, lang -> {
+        Map<String, CompiledTemplate> templates = new HashMap<>();
+        compileCatalog(getJson(lang, true), "", templates);
+        return templates;
+      });
+    }
+    return catalog;
+  }
+
+  private static void compileCatalog(@NotNull JsonNode node, @NotNull String prefix, @NotNull Map<String, CompiledTemplate> templates) {
+    if (node.isObject()) {
+      for (Iterator<Map.Entry<String, JsonNode>> iterator = node.fields(); iterator.hasNext(); ) {
+        Map.Entry<String, JsonNode> field = iterator.next();
+        compileCatalog(field.getValue(), prefix.isEmpty() ? field.getKey() : prefix + "." + field.getKey(), templates);
+      }
+    } else if (node.isArray()) {
+      for (int i = 0; i < node.size(); i++) {
+        compileCatalog(node.get(i), prefix + "." + i, templates);
+      }
+    } else if (node.isTextual() && !node.textValue().isEmpty()) {
+      templates.put(prefix, CompiledTemplate.compile(node.textValue()));
+    }
   }
 
   private static ObjectNode getJson(@Nullable String lang, boolean isServer) {
     String langStr = lang == null ? CURRENT_LANG : lang;
     String key = langStr + (isServer ? "_server" : "");
-    if (!i18nLang.containsKey(key)) {
-      i18nLang.put(key, JsonUtils.readAndMergeJSON("i18n/" + key + ".json", OBJECT_MAPPER.createObjectNode()));
+    return i18nLang.computeIfAbsent(key, k ->
+      JsonUtils.readAndMergeJSON("i18n/" + k + ".json", OBJECT_MAPPER.createObjectNode()));
+  }
+
+  /**
+   * Message split by {{param}} placeholders. parts contains literal text at even and param names at odd positions.
+   * Unknown or null params are kept as is
+   */
+  private record CompiledTemplate(@NotNull String text, @NotNull String[] parts) {
+
+    private static @NotNull CompiledTemplate compile(@NotNull String text) {
+      List<String> parts = new ArrayList<>();
+      int position = 0;
+      int start;
+      while ((start = text.indexOf("{{", position)) >= 0) {
+        int end = text.indexOf("}}", start + 2);
+        if (end < 0) {
+          break;
+        }
+        parts.add(text.substring(position, start));
+        parts.add(text.substring(start + 2, end));
+        position = end + 2;
+      }
+      if (parts.isEmpty()) {
+        return new CompiledTemplate(text, new String[0]);
+      }
+      parts.add(text.substring(position));
+      return new CompiledTemplate(text, parts.toArray(new String[0]));
+    }
+
+    private @NotNull String render(@NotNull Map<String, String> params) {
+      if (parts.length == 0) {
+        return text;
+      }
+      StringBuilder builder = new StringBuilder(text.length() + 16);
+      for (int i = 0; i < parts.length; i++) {
+        if (i % 2 == 0) {
+          builder.append(parts[i]);
+        } else {
+          String value = params.get(parts[i]);
+          if (value == null) {
+            builder.append("{{").append(parts[i]).append("}}");
+          } else {
+            builder.append(value);
+          }
+        }
+      }
+      return builder.toString();
     }
-    return i18nLang.get(key);
   }
 }
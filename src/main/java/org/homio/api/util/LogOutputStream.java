@@ -1,25 +1,246 @@
 package org.homio.api.util;
 
 import lombok.Getter;
-import lombok.RequiredArgsConstructor;
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
 
-import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
 
-@Getter
-@RequiredArgsConstructor
-public class LogOutputStream extends ByteArrayOutputStream {
+/**
+ * Line based log sink. Every line is logged as separate event as soon as it arrives. Memory is bounded: line longer than
+ * 'maxLineLength' bytes is truncated, and only last 'tailSize' lines are kept for getTail(). When more than
+ * 'maxLinesPerSecond' lines arrive within one second, only every 'sampleRate' line is logged and others are counted as
+ * dropped.
+ */
+public class LogOutputStream extends OutputStream {
 
-  private final Logger logger;
-  private final Level level;
+  private static final int DEFAULT_MAX_LINE_LENGTH = 8192;
+  private static final int DEFAULT_MAX_LINES_PER_SECOND = 1000;
+  private static final int DEFAULT_SAMPLE_RATE = 100;
+  private static final int DEFAULT_TAIL_SIZE = 50;
+
+  private final @Getter Logger logger;
+  private final @Getter Level level;
+  private final int maxLinesPerSecond;
+  private final int sampleRate;
+
+  private final ReentrantLock lock = new ReentrantLock();
+  // raw bytes of current line
+  private final ByteBuffer lineBuffer;
+  private final CharBuffer charBuffer;
+  private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                                                              .onMalformedInput(CodingErrorAction.REPLACE)
+                                                              .onUnmappableCharacter(CodingErrorAction.REPLACE);
+  private final String[] tail;
+  private int tailPosition;
+  private boolean truncating;
+  private long windowStart;
+  private int windowLines;
+  private long windowDropped;
+
+  private volatile @Getter long lines;
+  private volatile @Getter long droppedLines;
+  private volatile @Getter long truncatedLines;
+
+  public LogOutputStream(Logger logger, Level level) {
+    this(logger, level, DEFAULT_MAX_LINE_LENGTH, DEFAULT_MAX_LINES_PER_SECOND, DEFAULT_SAMPLE_RATE, DEFAULT_TAIL_SIZE);
+  }
 
   /**
-   * Flushes the output stream.
+   * @param maxLineLength     - max bytes of single line. Rest of line is skipped
+   * @param maxLinesPerSecond - lines logged per second before sampling starts
+   * @param sampleRate        - log every N-th line on overload. 0 - drop all lines on overload
+   * @param tailSize          - number of last lines kept in memory
    */
+  public LogOutputStream(Logger logger, Level level, int maxLineLength, int maxLinesPerSecond, int sampleRate, int tailSize) {
+    this.logger = logger;
+    this.level = level;
+    this.maxLinesPerSecond = maxLinesPerSecond;
+    this.sampleRate = sampleRate;
+    this.lineBuffer = ByteBuffer.allocate(Math.max(16, maxLineLength));
+    this.charBuffer = CharBuffer.allocate(lineBuffer.capacity());
+    this.tail = new String[Math.max(0, tailSize)];
+  }
+
+  @Override
+  public void write(int b) {
+    lock.lock();
+    try {
+      writeByte((byte) b);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public void write(byte @NotNull [] b, int off, int len) {
+    lock.lock();
+    try {
+      int end = off + len;
+      while (off < end) {
+        // copy bytes up to line end in bulk
+        int start = off;
+        while (off < end && b[off] != '\n') {
+          off++;
+        }
+        append(b, start, off - start);
+        if (off < end) {
+          emitLine();
+          off++;
+        }
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Logs pending incomplete line
+   */
+  @Override
   public void flush() {
-    logger.log(level, toString(StandardCharsets.UTF_8));
-    reset();
+    lock.lock();
+    try {
+      if (lineBuffer.position() > 0 || truncating) {
+        emitLine();
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public void close() {
+    flush();
+    lock.lock();
+    try {
+      reportDropped();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Reads stream until end and logs every line. Blocks calling thread, i.e. may be used from
+   * ThreadContext.attachInputStream(...) reader threads
+   */
+  public void consume(@NotNull InputStream inputStream) throws IOException {
+    byte[] buffer = new byte[4096];
+    int read;
+    while ((read = inputStream.read(buffer)) != -1) {
+      write(buffer, 0, read);
+    }
+    flush();
+  }
+
+  /**
+   * @return last logged lines, oldest first
+   */
+  public @NotNull List<String> getTail() {
+    lock.lock();
+    try {
+      List<String> result = new ArrayList<>(tail.length);
+      for (int i = 0; i < tail.length; i++) {
+        String line = tail[(tailPosition + i) % tail.length];
+        if (line != null) {
+          result.add(line);
+        }
+      }
+      return result;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  // must be called under lock
+  private void writeByte(byte b) {
+    if (b == '\n') {
+      emitLine();
+    } else if (lineBuffer.hasRemaining()) {
+      lineBuffer.put(b);
+    } else {
+      truncating = true;
+    }
+  }
+
+  // must be called under lock
+  private void append(byte[] b, int off, int len) {
+    int count = Math.min(len, lineBuffer.remaining());
+    lineBuffer.put(b, off, count);
+    if (count < len) {
+      truncating = true;
+    }
+  }
+
+  // must be called under lock
+  private void emitLine() {
+    lines++;
+    if (truncating) {
+      truncatedLines++;
+    }
+    if (!acquireSlot()) {
+      lineBuffer.clear();
+      truncating = false;
+      return;
+    }
+    lineBuffer.flip();
+    charBuffer.clear();
+    decoder.reset();
+    decoder.decode(lineBuffer, charBuffer, true);
+    decoder.flush(charBuffer);
+    charBuffer.flip();
+    int length = charBuffer.limit();
+    if (length > 0 && charBuffer.get(length - 1) == '\r') {
+      length--;
+    }
+    String line = charBuffer.subSequence(0, length).toString();
+    if (truncating) {
+      line += "...";
+    }
+    lineBuffer.clear();
+    truncating = false;
+    if (tail.length > 0) {
+      tail[tailPosition] = line;
+      tailPosition = (tailPosition + 1) % tail.length;
+    }
+    logger.log(level, line);
+  }
+
+  // must be called under lock. Whether line may be logged within current rate window
+  private boolean acquireSlot() {
+    long now = System.currentTimeMillis();
+    if (now - windowStart >= 1000) {
+      reportDropped();
+      windowStart = now;
+      windowLines = 0;
+    }
+    windowLines++;
+    if (windowLines <= maxLinesPerSecond) {
+      return true;
+    }
+    if (sampleRate > 0 && (windowLines - maxLinesPerSecond) % sampleRate == 0) {
+      return true;
+    }
+    windowDropped++;
+    droppedLines++;
+    return false;
+  }
+
+  private void reportDropped() {
+    if (windowDropped > 0) {
+      logger.log(level, "Dropped {} log lines", windowDropped);
+      windowDropped = 0;
+    }
   }
 }
@@ -0,0 +1,244 @@
+package org.homio.api.util;
+
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.BiConsumer;
+
+/**
+ * TCP port scanner of IPv4 ranges. Uses non-blocking connects on single selector thread, so number of in-flight probes is
+ * limited only by 'concurrency' and whole /22 with 500ms timeout takes few seconds. Ranges are in CIDR notation
+ * (192.168.0.0/22) or single address. Open ports are passed to handler as soon as connect succeeds.
+ */
+@Log4j2
+public class NetworkScanner {
+
+  private int concurrency = 256;
+  private @NotNull Duration timeout = Duration.ofMillis(500);
+
+  /**
+   * Max number of hosts being probed at same time
+   */
+  public @NotNull NetworkScanner setConcurrency(int concurrency) {
+    this.concurrency = Math.max(1, concurrency);
+    return this;
+  }
+
+  /**
+   * Max time to wait for connect of single host/port
+   */
+  public @NotNull NetworkScanner setTimeout(@NotNull Duration timeout) {
+    this.timeout = timeout;
+    return this;
+  }
+
+  /**
+   * Probe all addresses of ranges on all ports. Blocks until all probes are finished or thread is interrupted.
+   *
+   * @param handler - called from scanning thread with (ip, port) of every open port. Must not block
+   */
+  public @NotNull Report scan(@NotNull Collection<String> ranges, @NotNull Collection<Integer> ports,
+                              @NotNull BiConsumer<String, Integer> handler) throws IOException {
+    long start = System.nanoTime();
+    long timeoutNanos = timeout.toNanos();
+    Iterator<InetSocketAddress> targets = new TargetIterator(parseRanges(ranges), List.copyOf(ports));
+    long probed = 0;
+    long open = 0;
+    int inFlight = 0;
+    try (Selector selector = Selector.open()) {
+      while (!Thread.currentThread().isInterrupted()) {
+        while (inFlight < concurrency && targets.hasNext()) {
+          InetSocketAddress address = targets.next();
+          probed++;
+          SocketChannel channel = SocketChannel.open();
+          try {
+            channel.configureBlocking(false);
+            if (channel.connect(address)) {
+              open++;
+              notify(handler, address);
+              channel.close();
+            } else {
+              channel.register(selector, SelectionKey.OP_CONNECT, new Probe(address, System.nanoTime() + timeoutNanos));
+              inFlight++;
+            }
+          } catch (IOException ex) {
+            // i.e. network unreachable
+            channel.close();
+          }
+        }
+        if (inFlight == 0) {
+          break;
+        }
+        selector.select(Math.max(1, Math.min(50, timeout.toMillis())));
+
+        for (SelectionKey key : selector.selectedKeys()) {
+          Probe probe = (Probe) key.attachment();
+          try {
+            if (((SocketChannel) key.channel()).finishConnect()) {
+              open++;
+              notify(handler, probe.address);
+            }
+          } catch (IOException ignore) {
+            // connection refused
+          }
+          key.channel().close();
+          inFlight--;
+        }
+        selector.selectedKeys().clear();
+
+        long now = System.nanoTime();
+        for (SelectionKey key : selector.keys()) {
+          if (key.isValid() && now - ((Probe) key.attachment()).deadline > 0) {
+            key.channel().close();
+            inFlight--;
+          }
+        }
+      }
+      for (SelectionKey key : selector.keys()) {
+        key.channel().close();
+      }
+    }
+    Report report = new Report(probed, open, Duration.ofNanos(System.nanoTime() - start));
+    log.debug("Network scan of {} finished. {}", ranges, report);
+    return report;
+  }
+
+  /**
+   * @return [first, last] address (as unsigned int) of every range. Network and broadcast addresses are excluded
+   */
+  public static @NotNull List<long[]> parseRanges(@NotNull Collection<String> ranges) {
+    List<long[]> result = new ArrayList<>(ranges.size());
+    for (String range : ranges) {
+      int index = range.indexOf('/');
+      long address = parseAddress(index == -1 ? range : range.substring(0, index));
+      int prefix = index == -1 ? 32 : Integer.parseInt(range.substring(index + 1).trim());
+      if (prefix < 0 || prefix > 32) {
+        throw new IllegalArgumentException("Wrong network prefix: " + range);
+      }
+      long mask = prefix == 0 ? 0 : (0xFFFFFFFFL << (32 - prefix)) & 0xFFFFFFFFL;
+      long first = address & mask;
+      long last = first | (~mask & 0xFFFFFFFFL);
+      if (prefix < 31) {
+        first++;
+        last--;
+      }
+      result.add(new long[]{first, last});
+    }
+    return result;
+  }
+
+  public static long parseAddress(@NotNull String address) {
+    String[] parts = address.trim().split("\\.");
+    if (parts.length != 4) {
+      throw new IllegalArgumentException("Wrong IPv4 address: " + address);
+    }
+    long value = 0;
+    for (String part : parts) {
+      int octet = Integer.parseInt(part);
+      if (octet < 0 || octet > 255) {
+        throw new IllegalArgumentException("Wrong IPv4 address: " + address);
+      }
+      value = (value << 8) | octet;
+    }
+    return value;
+  }
+
+  public static @NotNull String formatAddress(long address) {
+    return ((address >> 24) & 0xFF) + "." + ((address >> 16) & 0xFF) + "." + ((address >> 8) & 0xFF) + "." + (address & 0xFF);
+  }
+
+  private static void notify(@NotNull BiConsumer<String, Integer> handler, @NotNull InetSocketAddress address) {
+    try {
+      handler.accept(address.getHostString(), address.getPort());
+    } catch (Exception ex) {
+      log.error("Error during handle open port {}", address, ex);
+    }
+  }
+
+  @Getter
+  public static class Report {
+
+    private final long probed;
+    private final long open;
+    private final @NotNull Duration duration;
+
+    private Report(long probed, long open, @NotNull Duration duration) {
+      this.probed = probed;
+      this.open = open;
+      this.duration = duration;
+    }
+
+    /**
+     * @return probes per second
+     */
+    public double getThroughput() {
+      long millis = duration.toMillis();
+      return millis == 0 ? probed : probed * 1000D / millis;
+    }
+
+    @Override
+    public String toString() {
+      return "Probed: %d, open: %d, time: %dms, throughput: %.0f/s".formatted(probed, open, duration.toMillis(),
+        getThroughput());
+    }
+  }
+
+  private record Probe(@NotNull InetSocketAddress address, long deadline) {
+
+  }
+
+  // lazily produces address:port pairs without materializing whole range
+  private static class TargetIterator implements Iterator<InetSocketAddress> {
+
+    private final @NotNull List<long[]> ranges;
+    private final @NotNull List<Integer> ports;
+    private int rangeIndex;
+    private long address;
+    private int portIndex;
+
+    private TargetIterator(@NotNull List<long[]> ranges, @NotNull List<Integer> ports) {
+      this.ranges = ranges;
+      this.ports = ports;
+      this.address = ranges.isEmpty() ? 0 : ranges.get(0)[0];
+    }
+
+    @Override
+    public boolean hasNext() {
+      while (rangeIndex < ranges.size() && !ports.isEmpty()) {
+        if (address <= ranges.get(rangeIndex)[1]) {
+          return true;
+        }
+        rangeIndex++;
+        if (rangeIndex < ranges.size()) {
+          address = ranges.get(rangeIndex)[0];
+        }
+      }
+      return false;
+    }
+
+    @Override
+    public InetSocketAddress next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      InetSocketAddress target = new InetSocketAddress(formatAddress(address), ports.get(portIndex));
+      if (++portIndex == ports.size()) {
+        portIndex = 0;
+        address++;
+      }
+      return target;
+    }
+  }
+}
@@ -1,5 +1,6 @@
 package org.homio.api.widget.template;
 
+import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.SneakyThrows;
@@ -31,6 +32,7 @@ import java.util.stream.Stream;
 
 @Getter
 @Setter
+@EqualsAndHashCode
 public class WidgetDefinition {
 
   private static final Pattern AUTO_DISCOVERY_REGEXP = Pattern.compile("^(state|switch).*");
@@ -156,6 +158,7 @@ public class WidgetDefinition {
 
   @Getter
   @Setter
+  @EqualsAndHashCode
   public static class ItemDefinition {
 
     private String name;
@@ -170,6 +173,7 @@ public class WidgetDefinition {
 
   @Getter
   @Setter
+  @EqualsAndHashCode
   public static class IconPicker {
 
     private String value;
@@ -178,6 +182,7 @@ public class WidgetDefinition {
 
   @Getter
   @Setter
+  @EqualsAndHashCode
   public static class ColorPicker {
 
     private String value;
@@ -187,6 +192,7 @@ public class WidgetDefinition {
 
   @Getter
   @Setter
+  @EqualsAndHashCode
   public static class Margin {
 
     private int top;
@@ -197,6 +203,7 @@ public class WidgetDefinition {
 
   @Getter
   @Setter
+  @EqualsAndHashCode
   public static class Options {
 
     public Boolean showAllButton;
@@ -221,6 +228,7 @@ public class WidgetDefinition {
 
     @Getter
     @Setter
+    @EqualsAndHashCode
     public static class Pulse {
 
       private ValueCompare op;
@@ -231,6 +239,7 @@ public class WidgetDefinition {
 
     @Getter
     @Setter
+    @EqualsAndHashCode
     public static class Threshold {
 
       private ValueCompare op;
@@ -241,6 +250,7 @@ public class WidgetDefinition {
 
     @Getter
     @Setter
+    @EqualsAndHashCode
     public static class Chart {
 
       private Source source;
@@ -259,6 +269,7 @@ public class WidgetDefinition {
 
     @Getter
     @Setter
+    @EqualsAndHashCode
     public static class Source {
 
       private SourceType kind;
@@ -273,6 +284,7 @@ public class WidgetDefinition {
 
   @Getter
   @Setter
+  @EqualsAndHashCode
   public static class Requests {
 
     private String name;
@@ -0,0 +1,63 @@
+package org.homio.api.fs;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import org.homio.api.fs.FileSearchEngine.ContentMatcher;
+import org.homio.api.fs.FileSystemProvider.SearchParameters;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class FileSearchEngineTest {
+
+    @Test
+    public void testContainsAcrossChunkBoundary() throws IOException {
+        ContentMatcher matcher = matcher("hello", false, false);
+        // "hel" | "lo world"
+        Assertions.assertTrue(matcher.contains(chunked("some text hello world", 13), () -> false));
+        // every chunk smaller than searched text
+        Assertions.assertTrue(matcher.contains(chunked("some text hello world", 2), () -> false));
+        Assertions.assertFalse(matcher.contains(chunked("some text help world", 2), () -> false));
+    }
+
+    @Test
+    public void testCaseInsensitiveAcrossChunkBoundary() throws IOException {
+        Assertions.assertTrue(matcher("hello", false, false).contains(chunked("xx HELLO", 5), () -> false));
+        Assertions.assertFalse(matcher("hello", true, false).contains(chunked("xx HELLO", 5), () -> false));
+    }
+
+    @Test
+    public void testWholeWordAtChunkBoundary() throws IOException {
+        ContentMatcher matcher = matcher("hello", false, true);
+        // word ends exactly at chunk end, next chunk continues word
+        Assertions.assertFalse(matcher.contains(chunked("xx hello" + "world", 8), () -> false));
+        // next chunk starts with separator
+        Assertions.assertTrue(matcher.contains(chunked("xx hello" + " world", 8), () -> false));
+        // word at end of stream
+        Assertions.assertTrue(matcher.contains(chunked("xx hello", 8), () -> false));
+        // word starts at chunk start, previous chunk ends with word char
+        Assertions.assertFalse(matcher.contains(chunked("xxx" + "hello yy", 3), () -> false));
+        Assertions.assertTrue(matcher.contains(chunked("xx " + "hello yy", 3), () -> false));
+    }
+
+    @Test
+    public void testCancelled() throws IOException {
+        Assertions.assertFalse(matcher("hello", false, false).contains(chunked("hello", 5), () -> true));
+    }
+
+    private static ContentMatcher matcher(String text, boolean caseSensitive, boolean wholeWordsOnly) {
+        return new ContentMatcher(new SearchParameters(0, -1, false, true, null, text, caseSensitive, false,
+            wholeWordsOnly, false));
+    }
+
+    // returns at most chunkSize bytes per read, so every read is a separate chunk of matcher
+    private static InputStream chunked(String text, int chunkSize) {
+        return new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, chunkSize));
+            }
+        };
+    }
+}
@@ -0,0 +1,42 @@
+package org.homio.api.service;
+
+import static org.homio.api.service.ServiceBootstrap.findCycles;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class ServiceBootstrapTest {
+
+    @Test
+    public void testFindThreeNodeCycle() {
+        Map<String, Set<String>> dependencies = new LinkedHashMap<>();
+        dependencies.put("a", Set.of("b"));
+        dependencies.put("b", Set.of("c"));
+        dependencies.put("c", Set.of("a"));
+        // d depends on cycle but is not part of it
+        dependencies.put("d", Set.of("a"));
+        Assertions.assertEquals(Set.of("a", "b", "c"), findCycles(dependencies));
+    }
+
+    @Test
+    public void testFindCycleFromAnyStart() {
+        Map<String, Set<String>> dependencies = new LinkedHashMap<>();
+        dependencies.put("d", Set.of("c"));
+        dependencies.put("c", Set.of("b"));
+        dependencies.put("b", Set.of("a"));
+        dependencies.put("a", Set.of("c"));
+        Assertions.assertEquals(Set.of("a", "b", "c"), findCycles(dependencies));
+    }
+
+    @Test
+    public void testNoCycles() {
+        Map<String, Set<String>> dependencies = new LinkedHashMap<>();
+        dependencies.put("a", Set.of("b", "c"));
+        dependencies.put("b", Set.of("c"));
+        dependencies.put("c", Set.of("unknown"));
+        Assertions.assertEquals(Set.of(), findCycles(dependencies));
+    }
+}
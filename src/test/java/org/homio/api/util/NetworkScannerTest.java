@@ -0,0 +1,48 @@
+package org.homio.api.util;
+
+import static org.homio.api.util.NetworkScanner.formatAddress;
+import static org.homio.api.util.NetworkScanner.parseAddress;
+import static org.homio.api.util.NetworkScanner.parseRanges;
+
+import java.util.List;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class NetworkScannerTest {
+
+    @Test
+    public void testParseRanges() {
+        assertRange("192.168.0.1", "192.168.3.254", "192.168.1.17/22");
+        // single address without prefix
+        assertRange("10.0.0.5", "10.0.0.5", "10.0.0.5");
+    }
+
+    @Test
+    public void testParseRangesPointToPoint() {
+        // /31 has no network and broadcast address: both addresses are hosts
+        assertRange("10.0.0.4", "10.0.0.5", "10.0.0.5/31");
+        assertRange("10.0.0.5", "10.0.0.5", "10.0.0.5/32");
+    }
+
+    @Test
+    public void testParseRangesWholeInternet() {
+        assertRange("0.0.0.1", "255.255.255.254", "172.16.0.1/0");
+    }
+
+    @Test
+    public void testParseRangesWrongPrefix() {
+        Assertions.assertThrows(IllegalArgumentException.class, () -> parseRanges(List.of("10.0.0.1/33")));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> parseRanges(List.of("10.0.0/24")));
+    }
+
+    @Test
+    public void testFormatAddress() {
+        Assertions.assertEquals("255.0.10.1", formatAddress(parseAddress("255.0.10.1")));
+    }
+
+    private static void assertRange(String first, String last, String range) {
+        long[] result = parseRanges(List.of(range)).get(0);
+        Assertions.assertEquals(first, formatAddress(result[0]));
+        Assertions.assertEquals(last, formatAddress(result[1]));
+    }
+}